@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.gfb.qrbill.benchmarks;
+
+import com.gfb.qrbill.QRBill;
+import com.gfb.qrbill.testdata.SyntheticBills;
+import com.gfb.qrbill.zxing.ZXing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The inputs shared by the benchmarks: the payloads of the scanned QR bills in
+ * {@code res/test_qrs}, and synthetic bills from {@link SyntheticBills} with a fixed seed, so that
+ * every run measures the same data.
+ *
+ * <p>The fixture directory defaults to {@code res/test_qrs} in the working directory or its
+ * parent, and can be set with the {@code qrbill.fixtures} system property.</p>
+ */
+public class BenchmarkData {
+
+    /**
+     * The fixture directory system property.
+     */
+    public static final String      FIXTURES_PROPERTY   = "qrbill.fixtures";
+
+    private static final String     FIXTURES_PATH       = "res/test_qrs";
+    private static final long       SEED                = 0x5143_5242L;
+    private static final int        SYNTHETIC_BILLS     = 64;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Gets the QR code images of the fixtures, Invoice1.jpg to Invoice4.jpg.
+     */
+    public static File[] getFixtureImages() {
+        File dir = new File(System.getProperty(FIXTURES_PROPERTY, FIXTURES_PATH));
+        if (!dir.isDirectory())
+            dir = new File("..", FIXTURES_PATH);
+        File[] files = new File[4];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(dir, "Invoice" + (i + 1) + ".jpg");
+            if (!files[i].isFile())
+                throw new IllegalStateException("Fixture not found: " + files[i].getAbsolutePath()
+                        + "; set -D" + FIXTURES_PROPERTY + " to the test_qrs directory.");
+        }
+        return files;
+    }
+
+    /**
+     * Gets the payloads of the fixture images.
+     */
+    public static String[] getFixturePayloads() throws IOException {
+        File[] files = getFixtureImages();
+        String[] payloads = new String[files.length];
+        for (int i = 0; i < files.length; i++)
+            payloads[i] = ZXing.readQRImage(files[i]);
+        return payloads;
+    }
+
+    /**
+     * Gets the payloads of the synthetic bills.
+     */
+    public static String[] getSyntheticPayloads() {
+        List<String> payloads = new ArrayList<String>();
+        for (QRBill bill : getSyntheticBills())
+            payloads.add(bill.toString());
+        return payloads.toArray(new String[payloads.size()]);
+    }
+
+    /**
+     * Gets valid bills from {@link SyntheticBills}, always the same ones.
+     */
+    public static List<QRBill> getSyntheticBills() {
+        SyntheticBills generator = new SyntheticBills(SEED, 0);
+        List<QRBill> bills = new ArrayList<QRBill>();
+        for (int i = 0; i < SYNTHETIC_BILLS; i++)
+            bills.add(generator.nextBill());
+        return bills;
+    }
+}
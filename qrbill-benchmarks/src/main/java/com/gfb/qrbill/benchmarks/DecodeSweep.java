@@ -0,0 +1,230 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.gfb.qrbill.benchmarks;
+
+import com.gfb.qrbill.QRBill;
+import com.gfb.qrbill.testdata.ScanDegradation;
+import com.gfb.qrbill.testdata.SyntheticBills;
+import com.gfb.qrbill.zxing.DecodeStrategy;
+import com.gfb.qrbill.zxing.QRDecoder;
+import com.gfb.qrbill.zxing.RasterLuminanceSource;
+import com.gfb.qrbill.zxing.ZXing;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Result;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Sweeps decoder configurations across controlled degradations of rendered bills, to choose
+ * decoder settings from data. For each level of each degradation (blur, noise, JPEG quality,
+ * resolution and rotation, each varied on its own from a clean 300 dpi scan), the same seeded set
+ * of scans is decoded with every {@link DecodeStrategy} combination of binarizer, TRY_HARDER and
+ * downscaling, and with the tiered {@link QRDecoder} behind {@link ZXing#readQRImage}. The result
+ * is a table of success rate against median and p99 latency. With fewer than
+ * {@value #MIN_P99_SAMPLES} samples per level the p99 is no more than the slowest sample, so the
+ * maximum is reported instead.
+ *
+ * <p>Usage, from the project root:</p>
+ *
+ * <pre>
+ * java -cp qrbill-benchmarks/target/benchmarks.jar com.gfb.qrbill.benchmarks.DecodeSweep [--samples=200] [--seed=1] [--csv]
+ * </pre>
+ *
+ * <p>Decoding starts from the luminance of the degraded image, so image file loading is not part
+ * of the latency.</p>
+ */
+public class DecodeSweep {
+
+    /**
+     * The fewest samples per level for which the p99 latency is reported rather than the maximum.
+     */
+    public static final int         MIN_P99_SAMPLES = 100;
+
+    private static final String     TIERED      = "tiered (readQRImage)";
+    private static final int[]      DOWNSCALES  = { 1, 2, 4 };
+
+    private final int samples;
+    private final long seed;
+    private final List<DecodeStrategy> strategies = new ArrayList<DecodeStrategy>();
+    private final QRDecoder tiered = new QRDecoder();
+
+    public DecodeSweep(int samples, long seed) {
+        this.samples = samples;
+        this.seed = seed;
+        for (DecodeStrategy.Binarizer binarizer : DecodeStrategy.Binarizer.values()) {
+            for (boolean tryHarder : new boolean[] { false, true }) {
+                for (int downscale : DOWNSCALES)
+                    strategies.add(new DecodeStrategy(binarizer, downscale, tryHarder, false));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int samples = 200;
+        long seed = 1;
+        boolean csv = false;
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--samples="))
+                samples = Integer.parseInt(value);
+            else if (arg.startsWith("--seed="))
+                seed = Long.parseLong(value);
+            else if (arg.equals("--csv"))
+                csv = true;
+            else
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+        }
+
+        DecodeSweep sweep = new DecodeSweep(samples, seed);
+        // Warm the decoders up on the clean scans, so that the first level is not measured cold.
+        sweep.run("warm-up", ScanDegradation.NONE);
+
+        String tail = samples < MIN_P99_SAMPLES ? "max" : "p99";
+        System.out.println(csv ? "degradation,level,config,success,median_ms," + tail + "_ms"
+                : String.format(Locale.ROOT, "%-11s %-9s %-34s %8s %10s %10s", "Degradation", "Level", "Config", "Success", "Median ms", tail + " ms"));
+        for (Object[] level : getLevels()) {
+            List<Row> rows = sweep.run((String) level[0], (ScanDegradation) level[1]);
+            for (Row row : rows)
+                System.out.println(csv ? row.toCSV() : row.toString());
+            if (!csv)
+                System.out.println();
+        }
+    }
+
+    /**
+     * The degradation levels as {axis, degradation}, each varying one parameter from clean.
+     */
+    static List<Object[]> getLevels() {
+        ScanDegradation clean = ScanDegradation.NONE;
+        List<Object[]> levels = new ArrayList<Object[]>();
+        for (int blur : new int[] { 0, 1, 2, 3, 4 })
+            levels.add(new Object[] { "blur", clean.withBlur(blur) });
+        for (double noise : new double[] { 10, 20, 40, 60 })
+            levels.add(new Object[] { "noise", clean.withNoise(noise) });
+        for (int quality : new int[] { 90, 50, 25, 10, 5 })
+            levels.add(new Object[] { "jpeg", clean.withJpegQuality(quality) });
+        for (int dpi : new int[] { 100, 150, 200, 600 })
+            levels.add(new Object[] { "dpi", clean.withDpi(dpi) });
+        for (double rotation : new double[] { 5, 15, 30, 45 })
+            levels.add(new Object[] { "rotation", clean.withRotation(rotation) });
+        return levels;
+    }
+
+    /**
+     * Decodes the scans of one degradation level with every configuration.
+     */
+    List<Row> run(String axis, ScanDegradation degradation) throws Exception {
+        // The same bills and noise for every level, so that levels differ only in the degradation.
+        SyntheticBills bills = new SyntheticBills(seed, 0);
+        Random random = new Random(seed);
+        LuminanceSource[] sources = new LuminanceSource[samples];
+        String[] payloads = new String[samples];
+        for (int i = 0; i < samples; i++) {
+            QRBill bill = bills.nextBill();
+            payloads[i] = bill.toString();
+            sources[i] = RasterLuminanceSource.create(degradation.apply(bill, random));
+        }
+
+        String level = describe(axis, degradation);
+        List<Row> rows = new ArrayList<Row>();
+        for (DecodeStrategy strategy : strategies) {
+            LatencyHistogram latencies = new LatencyHistogram();
+            int decoded = 0;
+            for (int i = 0; i < samples; i++) {
+                long start = System.nanoTime();
+                Result result = strategy.decode(sources[i], null);
+                latencies.record(System.nanoTime() - start);
+                if (result != null && payloads[i].equals(result.getText()))
+                    decoded++;
+            }
+            rows.add(new Row(axis, level, strategy.toString(), decoded, samples, latencies));
+        }
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        int decoded = 0;
+        for (int i = 0; i < samples; i++) {
+            long start = System.nanoTime();
+            String text;
+            try {
+                text = tiered.decode(sources[i]).getText();
+            } catch (NotFoundException e) {
+                text = null;
+            }
+            latencies.record(System.nanoTime() - start);
+            if (payloads[i].equals(text))
+                decoded++;
+        }
+        rows.add(new Row(axis, level, TIERED, decoded, samples, latencies));
+        return rows;
+    }
+
+    private static String describe(String axis, ScanDegradation degradation) {
+        switch (axis) {
+            case "blur":
+                return String.valueOf(degradation.getBlurRadius()) + " px";
+            case "noise":
+                return String.format(Locale.ROOT, "%.0f", degradation.getNoise());
+            case "jpeg":
+                return "q" + degradation.getJpegQuality();
+            case "dpi":
+                return String.valueOf(degradation.getDpi());
+            case "rotation":
+                return String.format(Locale.ROOT, "%.0f deg", degradation.getRotation());
+            default:
+                return degradation.toString();
+        }
+    }
+
+    /**
+     * One line of the table.
+     */
+    static class Row {
+        private final String axis;
+        private final String level;
+        private final String config;
+        private final double successRate;
+        private final double medianMillis;
+        private final double tailMillis;
+
+        Row(String axis, String level, String config, int decoded, int samples, LatencyHistogram latencies) {
+            this.axis = axis;
+            this.level = level;
+            this.config = config;
+            this.successRate = (double) decoded / samples;
+            this.medianMillis = latencies.getValueAtPercentile(50) / 1e6;
+            this.tailMillis = (samples < MIN_P99_SAMPLES ? latencies.getMax() : latencies.getValueAtPercentile(99)) / 1e6;
+        }
+
+        String toCSV() {
+            return String.format(Locale.ROOT, "%s,%s,\"%s\",%.3f,%.3f,%.3f", axis, level, config, successRate, medianMillis, tailMillis);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-11s %-9s %-34s %7.0f%% %10.2f %10.2f", axis, level, config,
+                    successRate * 100, medianMillis, tailMillis);
+        }
+    }
+}
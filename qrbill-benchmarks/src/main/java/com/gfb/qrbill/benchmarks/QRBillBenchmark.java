@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.gfb.qrbill.benchmarks;
+
+import com.gfb.qrbill.QRBill;
+import com.gfb.qrbill.testdata.SyntheticBills;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the {@link QRBill} serializer: parsing, serializing, validating and the field
+ * setters, over the fixture payloads and the synthetic bills of {@link BenchmarkData}. Each
+ * invocation works on the next payload in turn, so that no single bill dominates.
+ *
+ * <p>Run with {@code -prof gc} to report the bytes allocated per operation.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QRBillBenchmark {
+
+    @Param({ "fixtures", "synthetic" })
+    public String source;
+
+    private String[] payloads;
+    private QRBill[] bills;
+    private String[] ibans;
+    private String[] references;
+    private final QRBill scratch = new QRBill();
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        payloads = "fixtures".equals(source) ? BenchmarkData.getFixturePayloads() : BenchmarkData.getSyntheticPayloads();
+        bills = new QRBill[payloads.length];
+        ibans = new String[payloads.length];
+        references = new String[payloads.length];
+        for (int i = 0; i < payloads.length; i++) {
+            bills[i] = new QRBill(payloads[i]);
+            ibans[i] = bills[i].getIBAN();
+            // Bills without a QR reference are given one, so that its check digit always has work.
+            String reference = bills[i].getReference();
+            if (!QRBill.REFTYPE_QRR.equals(bills[i].getReferenceType()))
+                reference = "21000000000313947143000901";
+            references[i] = reference.length() == 27 ? reference
+                    : reference + SyntheticBills.getCheckDigit(reference);
+        }
+    }
+
+    private int next() {
+        int i = next;
+        next = i + 1 == payloads.length ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public QRBill parse() {
+        return new QRBill(payloads[next()]);
+    }
+
+    @Benchmark
+    public String serialize() {
+        return bills[next()].toString();
+    }
+
+    @Benchmark
+    public String getQRCode() throws QRBill.QRBillException {
+        return bills[next()].getQRCode();
+    }
+
+    @Benchmark
+    public boolean isValid() {
+        return bills[next()].isValid();
+    }
+
+    @Benchmark
+    public boolean setReference() {
+        return scratch.setReference(QRBill.REFTYPE_QRR, references[next()]);
+    }
+
+    @Benchmark
+    public boolean setIBAN() {
+        int i = next();
+        return bills[i].setIBAN(ibans[i]);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.gfb.qrbill.benchmarks;
+
+import com.gfb.qrbill.QRBill;
+import com.gfb.qrbill.zxing.QRBillHelper;
+import com.gfb.qrbill.zxing.ZXing;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks generating and reading QR code images: the legacy
+ * {@link ZXing#generateQRCodeImage(String, int, int, String, String)} used by
+ * {@link QRBillHelper#writeQR}, the in-memory module-exact rendering, and
+ * {@link ZXing#readQRImage(File)} on each fixture scan.
+ *
+ * <p>Run with {@code -prof gc} to report the bytes allocated per operation.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class QRImageBenchmark {
+
+    // The QR code size written by the tests, and the printed size and resolution of a QR bill.
+    private static final int        IMAGE_LENGTH    = 300;
+    private static final double     SIZE_MM         = 46.0;
+    private static final int        DPI             = 300;
+
+    @State(Scope.Thread)
+    public static class Generate {
+        private List<QRBill> bills;
+        private String[] payloads;
+        private File output;
+        private String crossPath;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            bills = BenchmarkData.getSyntheticBills();
+            payloads = BenchmarkData.getSyntheticPayloads();
+            output = File.createTempFile("qrbill", ".png");
+            File cross = new File(BenchmarkData.getFixtureImages()[0].getParentFile().getParentFile(), "qrbill_kreuz.png");
+            crossPath = cross.getPath();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            output.delete();
+        }
+
+        int next() {
+            int i = next;
+            next = i + 1 == payloads.length ? 0 : i + 1;
+            return i;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Read {
+        @Param({ "1", "2", "3", "4" })
+        public int invoice;
+
+        private File file;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            file = BenchmarkData.getFixtureImages()[invoice - 1];
+        }
+    }
+
+    @Benchmark
+    public File generateQRCodeImage(Generate state) throws Exception {
+        ZXing.generateQRCodeImage(state.payloads[state.next()], IMAGE_LENGTH, IMAGE_LENGTH,
+                state.output.getPath(), state.crossPath);
+        return state.output;
+    }
+
+    @Benchmark
+    public BitMatrix encodeQRBill(Generate state) throws QRBill.QRBillException, WriterException {
+        return ZXing.encodeQRBill(state.bills.get(state.next()));
+    }
+
+    @Benchmark
+    public BitMatrix renderQRBill(Generate state) throws QRBill.QRBillException, WriterException {
+        return ZXing.renderQRBill(state.bills.get(state.next()), SIZE_MM, DPI);
+    }
+
+    @Benchmark
+    public String readQRImage(Read state) throws IOException {
+        return ZXing.readQRImage(state.file);
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.gfb.qrbill.benchmarks;
+
+import com.gfb.qrbill.QRBill;
+import com.gfb.qrbill.zxing.RasterLuminanceSource;
+import com.gfb.qrbill.zxing.ZXing;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.Result;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A soak test that drives worker threads through the whole life of a QR bill for a set time:
+ * parse the payload, validate the bill, render its QR code image at print resolution and decode
+ * that image again to verify it. Latencies of each stage and of the whole round trip are recorded
+ * into {@link LatencyHistogram}s and reported as percentiles, together with the throughput and
+ * the GC pauses seen while it ran. The rendered image is a clean, axis-aligned symbol, so it is
+ * verified in ZXing's pure barcode mode rather than by searching for finder patterns.
+ *
+ * <p>Usage, from the project root:</p>
+ *
+ * <pre>
+ * java -cp qrbill-benchmarks/target/benchmarks.jar com.gfb.qrbill.benchmarks.SoakHarness \
+ *     --threads=8 --duration=60 --warmup=10 [--virtual] [--dpi=300]
+ * </pre>
+ *
+ * <p>Durations are in seconds. Virtual threads need Java 21 or later; on older runtimes the
+ * harness says so and uses platform threads. Iterations that start during the warm-up are not
+ * recorded.</p>
+ */
+public class SoakHarness {
+
+    private static final String[]   STAGES      = { "parse", "validate", "generate", "verify", "total" };
+    private static final int        PARSE       = 0;
+    private static final int        VALIDATE    = 1;
+    private static final int        GENERATE    = 2;
+    private static final int        VERIFY      = 3;
+    private static final int        TOTAL       = 4;
+
+    private static final double     SIZE_MM     = 46.0;
+
+    private final int threads;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final boolean virtual;
+    private final int dpi;
+    private final String[] payloads;
+
+    private final LatencyHistogram gcPauses = new LatencyHistogram();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong invalid = new AtomicLong();
+
+    private volatile long recordFrom;
+    private volatile long stopAt;
+
+    public SoakHarness(int threads, long durationSeconds, long warmupSeconds, boolean virtual, int dpi, String[] payloads) {
+        this.threads = threads;
+        this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(warmupSeconds);
+        this.virtual = virtual;
+        this.dpi = dpi;
+        this.payloads = payloads;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long duration = 60;
+        long warmup = 10;
+        boolean virtual = false;
+        int dpi = 300;
+        for (String arg : args) {
+            String value = arg.indexOf('=') < 0 ? "" : arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--threads="))
+                threads = Integer.parseInt(value);
+            else if (arg.startsWith("--duration="))
+                duration = Long.parseLong(value);
+            else if (arg.startsWith("--warmup="))
+                warmup = Long.parseLong(value);
+            else if (arg.equals("--virtual"))
+                virtual = true;
+            else if (arg.startsWith("--dpi="))
+                dpi = Integer.parseInt(value);
+            else
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+        }
+
+        SoakHarness harness = new SoakHarness(threads, duration, warmup, virtual, dpi, getPayloads());
+        System.out.print(harness.run());
+    }
+
+    /**
+     * The synthetic bills of {@link BenchmarkData}, and the fixture scans when they can be found.
+     */
+    private static String[] getPayloads() throws IOException {
+        List<String> payloads = new ArrayList<String>(Arrays.asList(BenchmarkData.getSyntheticPayloads()));
+        try {
+            payloads.addAll(Arrays.asList(BenchmarkData.getFixturePayloads()));
+        } catch (IllegalStateException e) {
+            System.err.println(e.getMessage() + " Using synthetic bills only.");
+        }
+        return payloads.toArray(new String[payloads.size()]);
+    }
+
+    /**
+     * Runs the workers for the warm-up and the duration, and waits for them to finish.
+     *
+     * @return The report.
+     */
+    public String run() throws InterruptedException {
+        List<GcListener> listeners = listenForGcPauses();
+        long gcCountBefore = getGcCount();
+        long gcTimeBefore = getGcTime();
+
+        Worker[] workers = new Worker[threads];
+        Thread[] started = new Thread[threads];
+        long start = System.nanoTime();
+        recordFrom = start + warmupNanos;
+        stopAt = recordFrom + durationNanos;
+        boolean usedVirtual = false;
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(i);
+            Thread thread = virtual ? startVirtual(workers[i]) : null;
+            if (thread == null) {
+                thread = new Thread(workers[i], "soak-" + i);
+                thread.start();
+            } else {
+                usedVirtual = true;
+            }
+            started[i] = thread;
+        }
+        for (Thread thread : started)
+            thread.join();
+        long measured = System.nanoTime() - recordFrom;
+
+        for (GcListener listener : listeners)
+            listener.remove();
+        long gcCount = getGcCount() - gcCountBefore;
+        long gcTime = getGcTime() - gcTimeBefore;
+
+        LatencyHistogram[] merged = new LatencyHistogram[STAGES.length];
+        for (int s = 0; s < STAGES.length; s++) {
+            merged[s] = new LatencyHistogram();
+            for (Worker worker : workers)
+                merged[s].add(worker.histograms[s]);
+        }
+        if (virtual && !usedVirtual)
+            System.err.println("Virtual threads need Java 21 or later; used platform threads.");
+        return report(merged, measured, usedVirtual, gcCount, gcTime);
+    }
+
+    private String report(LatencyHistogram[] merged, long measuredNanos, boolean usedVirtual, long gcCount, long gcTimeMillis) {
+        StringBuilder sb = new StringBuilder();
+        double seconds = measuredNanos / 1e9;
+        long iterations = merged[TOTAL].getCount();
+        sb.append(String.format(Locale.ROOT, "%d %s threads, %.1f s measured, %d dpi%n",
+                threads, usedVirtual ? "virtual" : "platform", seconds, dpi));
+        sb.append(String.format(Locale.ROOT, "Throughput: %.1f bills/s, %d iterations, %d invalid bills, %d failures%n%n",
+                iterations / seconds, iterations, invalid.get(), failures.get()));
+        sb.append(String.format(Locale.ROOT, "%-10s %10s %10s %10s %10s %10s%n", "Stage (ms)", "mean", "p50", "p99", "p99.9", "max"));
+        for (int s = 0; s < STAGES.length; s++) {
+            LatencyHistogram h = merged[s];
+            sb.append(String.format(Locale.ROOT, "%-10s %10.3f %10.3f %10.3f %10.3f %10.3f%n", STAGES[s],
+                    h.getMean() / 1e6, h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(99) / 1e6,
+                    h.getValueAtPercentile(99.9) / 1e6, h.getMax() / 1e6));
+        }
+        synchronized (gcPauses) {
+            sb.append(String.format(Locale.ROOT, "%nGC: %d collections, %d ms total; pauses p50 %d ms, p99 %d ms, max %d ms%n",
+                    gcCount, gcTimeMillis, gcPauses.getValueAtPercentile(50), gcPauses.getValueAtPercentile(99), gcPauses.getMax()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Starts the worker on a virtual thread through reflection, so that the harness still builds
+     * for and runs on older runtimes.
+     *
+     * @return The thread, or null if virtual threads are not available.
+     */
+    private static Thread startVirtual(Runnable worker) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (Thread) Class.forName("java.lang.Thread$Builder").getMethod("start", Runnable.class).invoke(builder, worker);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private class Worker implements Runnable {
+        private final LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length];
+        private final QRCodeReader reader = new QRCodeReader();
+        private final Map<DecodeHintType, Object> hints = new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+        private int next;
+
+        Worker(int index) {
+            hints.put(DecodeHintType.PURE_BARCODE, Boolean.TRUE);
+            for (int s = 0; s < STAGES.length; s++)
+                histograms[s] = new LatencyHistogram();
+            next = index % payloads.length;
+        }
+
+        @Override
+        public void run() {
+            long[] stamps = new long[STAGES.length];
+            while (true) {
+                long start = System.nanoTime();
+                if (start - stopAt >= 0)
+                    return;
+                String payload = payloads[next];
+                next = next + 1 == payloads.length ? 0 : next + 1;
+                boolean verified = iterate(payload, stamps);
+                if (start - recordFrom < 0)
+                    continue;
+                if (!verified) {
+                    failures.incrementAndGet();
+                    continue;
+                }
+                long previous = start;
+                for (int s = 0; s < TOTAL; s++) {
+                    histograms[s].record(stamps[s] - previous);
+                    previous = stamps[s];
+                }
+                histograms[TOTAL].record(previous - start);
+            }
+        }
+
+        /**
+         * Runs one round trip, stamping the end of each stage.
+         *
+         * @return Whether the image decoded back to the payload of the bill.
+         */
+        private boolean iterate(String payload, long[] stamps) {
+            try {
+                QRBill bill = new QRBill(payload);
+                stamps[PARSE] = System.nanoTime();
+                if (!bill.isValid() && System.nanoTime() - recordFrom >= 0)
+                    invalid.incrementAndGet();
+                stamps[VALIDATE] = System.nanoTime();
+                BitMatrix matrix = ZXing.renderQRBill(bill, SIZE_MM, dpi);
+                BufferedImage image = MatrixToImageWriter.toBufferedImage(matrix);
+                stamps[GENERATE] = System.nanoTime();
+                BinaryBitmap bitmap = new BinaryBitmap(new GlobalHistogramBinarizer(RasterLuminanceSource.create(image)));
+                Result result = reader.decode(bitmap, hints);
+                stamps[VERIFY] = System.nanoTime();
+                return result.getText().equals(bill.getQRCode());
+            } catch (Exception e) {
+                return false;
+            }
+        }
+    }
+
+    private List<GcListener> listenForGcPauses() {
+        List<GcListener> listeners = new ArrayList<GcListener>();
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (bean instanceof NotificationEmitter)
+                listeners.add(new GcListener((NotificationEmitter) bean));
+        }
+        return listeners;
+    }
+
+    /**
+     * Records the duration of each stop-the-world collection. Concurrent cycles, which run
+     * alongside the workers, are left out.
+     */
+    private class GcListener implements NotificationListener {
+        private final NotificationEmitter emitter;
+
+        GcListener(NotificationEmitter emitter) {
+            this.emitter = emitter;
+            emitter.addNotificationListener(this, null, null);
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()))
+                return;
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            String name = info.getGcName();
+            if (name.contains("Concurrent") || name.contains("Cycles"))
+                return;
+            synchronized (gcPauses) {
+                gcPauses.record(info.getGcInfo().getDuration());
+            }
+        }
+
+        void remove() {
+            try {
+                emitter.removeNotificationListener(this);
+            } catch (Exception e) {
+                // Already removed.
+            }
+        }
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, bean.getCollectionCount());
+        return count;
+    }
+
+    private static long getGcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+            time += Math.max(0, bean.getCollectionTime());
+        return time;
+    }
+}
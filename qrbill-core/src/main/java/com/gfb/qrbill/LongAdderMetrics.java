@@ -0,0 +1,220 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.gfb.qrbill;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free {@link QRBillMetrics}: every count is a {@link LongAdder}, so threads recording at
+ * the same time do not contend on a shared counter. Latencies go into a histogram of four
+ * buckets per power of two nanoseconds, from which percentiles are read.
+ *
+ * <p>Install it with {@link Metrics#set(QRBillMetrics)}, and call {@link #register()} to expose it
+ * through JMX as {@value #OBJECT_NAME}.</p>
+ */
+public class LongAdderMetrics implements QRBillMetrics, QRBillMetricsMXBean {
+
+    /**
+     * The JMX object name.
+     */
+    public static final String      OBJECT_NAME     = "com.gfb.qrbill:type=Metrics";
+
+    // Error IDs above this are counted together, under 0.
+    private static final int        MAX_ERROR_ID    = 31;
+    private static final int        SUB_BUCKET_BITS = 2;
+    private static final int        BUCKETS         = 64 << SUB_BUCKET_BITS;
+
+    private final OperationCounters[] operations = new OperationCounters[Operation.values().length];
+    private final LongAdder[] errors = new LongAdder[MAX_ERROR_ID + 1];
+
+    public LongAdderMetrics() {
+        for (int i = 0; i < operations.length; i++)
+            operations[i] = new OperationCounters();
+        for (int i = 0; i < errors.length; i++)
+            errors[i] = new LongAdder();
+    }
+
+    @Override
+    public void record(Operation operation, long nanos, boolean success) {
+        record(operation, nanos, success ? Outcome.SUCCESS : Outcome.FAILURE);
+    }
+
+    @Override
+    public void record(Operation operation, long nanos, Outcome outcome) {
+        OperationCounters counters = operations[operation.ordinal()];
+        counters.count.increment();
+        if (outcome == Outcome.FAILURE)
+            counters.failures.increment();
+        else if (outcome == Outcome.TIMED_OUT)
+            counters.timeouts.increment();
+        else if (outcome == Outcome.CANCELLED)
+            counters.cancellations.increment();
+        nanos = Math.max(0, nanos);
+        counters.nanos.add(nanos);
+        counters.max.accumulate(nanos);
+        counters.buckets[bucket(nanos)].increment();
+    }
+
+    @Override
+    public void recordError(int errorId) {
+        errors[errorId > 0 && errorId <= MAX_ERROR_ID ? errorId : 0].increment();
+    }
+
+    /**
+     * Registers this instance with the platform MBean server.
+     *
+     * @throws JMException Thrown when it cannot be registered, e.g. because another instance
+     * already is.
+     */
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * Unregisters this instance from the platform MBean server.
+     */
+    public void unregister() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * Gets a snapshot of one operation. Counters are read one after the other, so a snapshot
+     * taken while other threads record may be slightly inconsistent.
+     */
+    public OperationStats getStats(Operation operation) {
+        OperationCounters counters = operations[operation.ordinal()];
+        long count = counters.count.sum();
+        double mean = count == 0 ? 0 : counters.nanos.sum() / 1000.0 / count;
+        long[] buckets = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = counters.buckets[i].sum();
+            total += buckets[i];
+        }
+        long max = counters.max.get();
+        return new OperationStats(count, counters.failures.sum(), counters.timeouts.sum(), counters.cancellations.sum(), mean,
+                Math.min(max, percentile(buckets, total, 50)) / 1000.0,
+                Math.min(max, percentile(buckets, total, 99)) / 1000.0, max / 1000.0);
+    }
+
+    @Override
+    public OperationStats getParse() {
+        return getStats(Operation.PARSE);
+    }
+
+    @Override
+    public OperationStats getValidate() {
+        return getStats(Operation.VALIDATE);
+    }
+
+    @Override
+    public OperationStats getEncode() {
+        return getStats(Operation.ENCODE);
+    }
+
+    @Override
+    public OperationStats getDecode() {
+        return getStats(Operation.DECODE);
+    }
+
+    @Override
+    public Map<Integer, Long> getErrorCounts() {
+        Map<Integer, Long> counts = new TreeMap<>();
+        for (int i = 0; i < errors.length; i++) {
+            long count = errors[i].sum();
+            if (count > 0)
+                counts.put(i, count);
+        }
+        return counts;
+    }
+
+    @Override
+    public void reset() {
+        for (OperationCounters counters : operations)
+            counters.reset();
+        for (LongAdder error : errors)
+            error.reset();
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < (1 << SUB_BUCKET_BITS))
+            return (int) nanos;
+        int log = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (log - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+        return (log << SUB_BUCKET_BITS) | sub;
+    }
+
+    /**
+     * The highest value that falls into the bucket.
+     */
+    static long upperBound(int bucket) {
+        int log = bucket >>> SUB_BUCKET_BITS;
+        if (log < SUB_BUCKET_BITS)
+            return bucket;
+        long sub = bucket & ((1 << SUB_BUCKET_BITS) - 1);
+        return ((((1L << SUB_BUCKET_BITS) | sub) + 1) << (log - SUB_BUCKET_BITS)) - 1;
+    }
+
+    private static long percentile(long[] buckets, long total, double percentile) {
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank)
+                return upperBound(i);
+        }
+        return upperBound(buckets.length - 1);
+    }
+
+    private static class OperationCounters {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder cancellations = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        OperationCounters() {
+            for (int i = 0; i < BUCKETS; i++)
+                buckets[i] = new LongAdder();
+        }
+
+        void reset() {
+            count.reset();
+            failures.reset();
+            timeouts.reset();
+            cancellations.reset();
+            nanos.reset();
+            max.reset();
+            for (LongAdder bucket : buckets)
+                bucket.reset();
+        }
+    }
+}
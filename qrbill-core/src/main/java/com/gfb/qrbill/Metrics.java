@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.gfb.qrbill;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Holds the installed {@link QRBillMetrics}. On first use, the first implementation registered
+ * with {@link ServiceLoader} under {@code META-INF/services/com.gfb.qrbill.QRBillMetrics} is
+ * installed, or {@link QRBillMetrics#NO_OP} if there is none; {@link #set(QRBillMetrics)} replaces
+ * it at any time.
+ */
+public final class Metrics {
+
+    private static volatile QRBillMetrics current = load();
+
+    private Metrics() {
+    }
+
+    /**
+     * Gets the installed metrics; never null.
+     */
+    public static QRBillMetrics get() {
+        return current;
+    }
+
+    /**
+     * Installs the metrics that the hooks report to.
+     *
+     * @param metrics The metrics, or null to record nothing.
+     */
+    public static void set(QRBillMetrics metrics) {
+        current = metrics == null ? QRBillMetrics.NO_OP : metrics;
+    }
+
+    /**
+     * Records an operation that started at the given {@link System#nanoTime()}, unless nothing is
+     * installed.
+     */
+    static void record(QRBillMetrics.Operation operation, long start, boolean success) {
+        QRBillMetrics metrics = current;
+        if (metrics != QRBillMetrics.NO_OP)
+            metrics.record(operation, System.nanoTime() - start, success);
+    }
+
+    /**
+     * Records an operation that started at the given {@link System#nanoTime()} with its outcome,
+     * unless nothing is installed.
+     */
+    static void record(QRBillMetrics.Operation operation, long start, QRBillMetrics.Outcome outcome) {
+        QRBillMetrics metrics = current;
+        if (metrics != QRBillMetrics.NO_OP)
+            metrics.record(operation, System.nanoTime() - start, outcome);
+    }
+
+    private static QRBillMetrics load() {
+        try {
+            Iterator<QRBillMetrics> providers = ServiceLoader.load(QRBillMetrics.class).iterator();
+            if (providers.hasNext())
+                return providers.next();
+        } catch (ServiceConfigurationError e) {
+            // A broken provider must not break parsing; fall back to recording nothing.
+        }
+        return QRBillMetrics.NO_OP;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.gfb.qrbill;
+
+/**
+ * A snapshot of the counts and latencies of one operation, see {@link LongAdderMetrics}. Latency
+ * percentiles are the upper bounds of their histogram buckets, so they overstate the true value
+ * by up to a quarter.
+ */
+public class OperationStats {
+
+    private final long count;
+    private final long failures;
+    private final long timeouts;
+    private final long cancellations;
+    private final double meanMicros;
+    private final double p50Micros;
+    private final double p99Micros;
+    private final double maxMicros;
+
+    OperationStats(long count, long failures, long timeouts, long cancellations, double meanMicros, double p50Micros,
+                   double p99Micros, double maxMicros) {
+        this.count = count;
+        this.failures = failures;
+        this.timeouts = timeouts;
+        this.cancellations = cancellations;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets how many calls failed. Calls that timed out or were cancelled are not included.
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public long getCancellations() {
+        return cancellations;
+    }
+
+    public double getMeanMicros() {
+        return meanMicros;
+    }
+
+    public double getP50Micros() {
+        return p50Micros;
+    }
+
+    public double getP99Micros() {
+        return p99Micros;
+    }
+
+    public double getMaxMicros() {
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return count + " calls, " + failures + " failed, " + timeouts + " timed out, " + cancellations + " cancelled, mean " + Math.round(meanMicros) + " us, p50 "
+                + Math.round(p50Micros) + " us, p99 " + Math.round(p99Micros) + " us, max " + Math.round(maxMicros) + " us";
+    }
+}
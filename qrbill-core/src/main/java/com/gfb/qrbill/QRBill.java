@@ -19,6 +19,9 @@
 
 package com.gfb.qrbill;
 
+import com.gfb.qrbill.spi.PipelineEvents;
+
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 
 /**
@@ -68,7 +71,8 @@ public class QRBill {
      */
     public static final String      QRTYPE_SPC          = "SPC";
     /**
-     * Character Set: Latin (ISO-8859-1)
+     * Character Set: coding type 1, UTF-8 restricted to the Latin character set. The data is
+     * encoded as UTF-8, not ISO-8859-1; the name refers to the permitted characters.
      */
     public static final int         CODING_LATIN_1      = 1;
     /**
@@ -180,7 +184,12 @@ public class QRBill {
      *                http://www.paymentstandards.ch/
      */
     public QRBill(String rawData) {
-        validateData(rawData);
+        long start = System.nanoTime();
+        Object event = PipelineEvents.begin();
+        boolean valid = validateData(rawData).size() == 0;
+        Metrics.record(QRBillMetrics.Operation.PARSE, start, valid);
+        PipelineEvents.end(event, PipelineEvents.Stage.PARSE, event == null || rawData == null ? 0 : utf8Length(rawData), 0, 0, null,
+                valid ? "valid" : "invalid");
     }
 
     /**
@@ -189,7 +198,14 @@ public class QRBill {
      * @return Boolean. Whether the current QR Bill is valid or not.
      */
     public boolean isValid () {
-        return validateData(toString()).size() == 0;
+        long start = System.nanoTime();
+        Object event = PipelineEvents.begin();
+        String data = toString();
+        boolean valid = validateData(data).size() == 0;
+        Metrics.record(QRBillMetrics.Operation.VALIDATE, start, valid);
+        PipelineEvents.end(event, PipelineEvents.Stage.VALIDATE, event == null ? 0 : utf8Length(data), 0, 0, null,
+                valid ? "valid" : "invalid");
+        return valid;
     }
 
     /**
@@ -205,129 +221,97 @@ public class QRBill {
         StringBuffer out = new StringBuffer();
         if (structure != null) {
             for (Data element : structure) {
-                switch (element) {
-                    case QRTYPE:
-                        out.append(remNulls(getQrType()) + "\n");
-                        break;
-                    case VERSION:
-                        out.append(remNulls(getFormattedVersion()) + "\n");
-                        break;
-                    case CODING:
-                        out.append(getCodingType() + "\n");
-                        break;
-                    case ACCOUNT:
-                        out.append(remNulls(getIBAN()) + "\n");
-                        break;
-                    case AMOUNT:
-                        if (getAmount() > 0)
-                            out.append(formatAmountAsString(getAmount()));
-                        out.append("\n");
-                        break;
-                    case CURRENCY:
-                        out.append(remNulls(getCurrency()) + "\n");
-                        break;
-                    case DUEDATE:
-                        int[] dueDate = getDueDate();
-                        if (dueDate == null) {
-                            out.append("\n");
-                        } else {
-                            out.append(dueDate[0] + "-" + dueDate[1] + "-" + dueDate[2] + "\n");
-                        }
-                        break;
-                    case REF_TYPE:
-                        out.append(remNulls(getReferenceType()) + "\n");
-                        break;
-                    case REF:
-                        out.append(remNulls(getReference()) + "\n");
-                        break;
-                    case CR_ADDTYPE:
-                        out.append(remNulls(getActorAddressType(QRBill.ACTOR_CR)) + "\n");
-                        break;
-                    case CR_NAME:
-                        out.append(remNulls(getActorName(QRBill.ACTOR_CR)) + "\n");
-                        break;
-                    case CR_ADDRESS1:
-                        out.append(remNulls(getActorStreet(QRBill.ACTOR_CR)) + "\n");
-                        break;
-                    case CR_ADDRESS2:
-                        out.append(remNulls(getActorHouseNumber(QRBill.ACTOR_CR)) + "\n");
-                        break;
-                    case CR_POSTCODE:
-                        out.append(remNulls(getActorPostcode(QRBill.ACTOR_CR)) + "\n");
-                        break;
-                    case CR_LOCATION:
-                        out.append(remNulls(getActorLocation(QRBill.ACTOR_CR)) + "\n");
-                        break;
-                    case CR_COUNTRY:
-                        out.append(remNulls(getActorCountry(QRBill.ACTOR_CR)) + "\n");
-                        break;
-                    case UCR_ADDTYPE:
-                        out.append(remNulls(getActorAddressType(QRBill.ACTOR_UCR)) + "\n");
-                        break;
-                    case UCR_NAME:
-                        out.append(remNulls(getActorName(QRBill.ACTOR_UCR)) + "\n");
-                        break;
-                    case UCR_ADDRESS1:
-                        out.append(remNulls(getActorStreet(QRBill.ACTOR_UCR)) + "\n");
-                        break;
-                    case UCR_ADDRESS2:
-                        out.append(remNulls(getActorHouseNumber(QRBill.ACTOR_UCR)) + "\n");
-                        break;
-                    case UCR_POSTCODE:
-                        out.append(remNulls(getActorPostcode(QRBill.ACTOR_UCR)) + "\n");
-                        break;
-                    case UCR_LOCATION:
-                        out.append(remNulls(getActorLocation(QRBill.ACTOR_UCR)) + "\n");
-                        break;
-                    case UCR_COUNTRY:
-                        out.append(remNulls(getActorCountry(QRBill.ACTOR_UCR)) + "\n");
-                        break;
-                    case UDR_ADDTYPE:
-                        out.append(remNulls(getActorAddressType(QRBill.ACTOR_UDR)) + "\n");
-                        break;
-                    case UDR_NAME:
-                        out.append(remNulls(getActorName(QRBill.ACTOR_UDR)) + "\n");
-                        break;
-                    case UDR_ADDRESS1:
-                        out.append(remNulls(getActorStreet(QRBill.ACTOR_UDR)) + "\n");
-                        break;
-                    case UDR_ADDRESS2:
-                        out.append(remNulls(getActorHouseNumber(QRBill.ACTOR_UDR)) + "\n");
-                        break;
-                    case UDR_POSTCODE:
-                        out.append(remNulls(getActorPostcode(QRBill.ACTOR_UDR)) + "\n");
-                        break;
-                    case UDR_LOCATION:
-                        out.append(remNulls(getActorLocation(QRBill.ACTOR_UDR)) + "\n");
-                        break;
-                    case UDR_COUNTRY:
-                        out.append(remNulls(getActorCountry(QRBill.ACTOR_UDR)) + "\n");
-                        break;
-                    case UNSTR_MSG:
-                        out.append(remNulls(getUnstructuredMsg()) + "\n");
-                        break;
-                    case ALTSCHEMA1:
-                        String[] as1 = getAlternativeSchema(-1);
-                        out.append(as1[0] + "\n");
-                        break;
-                    case ALTSCHEMA2:
-                        String[] as2 = getAlternativeSchema(-1);
-                        out.append(as2[1] + "\n");
-                        break;
-                    case TRAILER:
-                        out.append(remNulls(getTrailer()) + "\n");
-                        break;
-                    case BILLINFO:
-                        out.append(remNulls(getBillInfo()) + "\n");
-                        break;
-                    default:
-                        break;
-                }
+                String text = getFieldText(element);
+                if (text != null)
+                    out.append(text).append('\n');
             }
         }
         return out.toString().trim();
     }
 
+    /**
+     * Gets the text of one field as it is serialized, without the line break.
+     *
+     * @return String. The text, or null for a field that is not serialized.
+     */
+    private String getFieldText (Data element) {
+        switch (element) {
+            case QRTYPE:
+                return remNulls(getQrType());
+            case VERSION:
+                return remNulls(getFormattedVersion());
+            case CODING:
+                return String.valueOf(getCodingType());
+            case ACCOUNT:
+                return remNulls(getIBAN());
+            case AMOUNT:
+                return getAmount() > 0 ? formatAmountAsString(getAmount()) : "";
+            case CURRENCY:
+                return remNulls(getCurrency());
+            case DUEDATE:
+                int[] dueDate = getDueDate();
+                return dueDate == null ? "" : dueDate[0] + "-" + dueDate[1] + "-" + dueDate[2];
+            case REF_TYPE:
+                return remNulls(getReferenceType());
+            case REF:
+                return remNulls(getReference());
+            case CR_ADDTYPE:
+                return remNulls(getActorAddressType(QRBill.ACTOR_CR));
+            case CR_NAME:
+                return remNulls(getActorName(QRBill.ACTOR_CR));
+            case CR_ADDRESS1:
+                return remNulls(getActorStreet(QRBill.ACTOR_CR));
+            case CR_ADDRESS2:
+                return remNulls(getActorHouseNumber(QRBill.ACTOR_CR));
+            case CR_POSTCODE:
+                return remNulls(getActorPostcode(QRBill.ACTOR_CR));
+            case CR_LOCATION:
+                return remNulls(getActorLocation(QRBill.ACTOR_CR));
+            case CR_COUNTRY:
+                return remNulls(getActorCountry(QRBill.ACTOR_CR));
+            case UCR_ADDTYPE:
+                return remNulls(getActorAddressType(QRBill.ACTOR_UCR));
+            case UCR_NAME:
+                return remNulls(getActorName(QRBill.ACTOR_UCR));
+            case UCR_ADDRESS1:
+                return remNulls(getActorStreet(QRBill.ACTOR_UCR));
+            case UCR_ADDRESS2:
+                return remNulls(getActorHouseNumber(QRBill.ACTOR_UCR));
+            case UCR_POSTCODE:
+                return remNulls(getActorPostcode(QRBill.ACTOR_UCR));
+            case UCR_LOCATION:
+                return remNulls(getActorLocation(QRBill.ACTOR_UCR));
+            case UCR_COUNTRY:
+                return remNulls(getActorCountry(QRBill.ACTOR_UCR));
+            case UDR_ADDTYPE:
+                return remNulls(getActorAddressType(QRBill.ACTOR_UDR));
+            case UDR_NAME:
+                return remNulls(getActorName(QRBill.ACTOR_UDR));
+            case UDR_ADDRESS1:
+                return remNulls(getActorStreet(QRBill.ACTOR_UDR));
+            case UDR_ADDRESS2:
+                return remNulls(getActorHouseNumber(QRBill.ACTOR_UDR));
+            case UDR_POSTCODE:
+                return remNulls(getActorPostcode(QRBill.ACTOR_UDR));
+            case UDR_LOCATION:
+                return remNulls(getActorLocation(QRBill.ACTOR_UDR));
+            case UDR_COUNTRY:
+                return remNulls(getActorCountry(QRBill.ACTOR_UDR));
+            case UNSTR_MSG:
+                return remNulls(getUnstructuredMsg());
+            case ALTSCHEMA1:
+                return String.valueOf(getAlternativeSchema(-1)[0]);
+            case ALTSCHEMA2:
+                return String.valueOf(getAlternativeSchema(-1)[1]);
+            case TRAILER:
+                return remNulls(getTrailer());
+            case BILLINFO:
+                return remNulls(getBillInfo());
+            default:
+                return null;
+        }
+    }
+
     /**
      * Gets the QR Code in the QR Billing object.
      *
@@ -340,6 +324,61 @@ public class QRBill {
         return toString();
     }
 
+    /**
+     * Gets the QR Code in the QR Billing object encoded as UTF-8, as required by the coding type
+     * {@link #CODING_LATIN_1}. These are the bytes the QR code carries, so they are encoded once
+     * here and used both for the size check and for the QR code itself.
+     *
+     * @return Byte Array. The UTF-8 encoded QR Bill data.
+     * @throws QRBillException Thrown when the encoded data exceeds the maximum of 997 bytes.
+     */
+    public byte[] getQRCodeBytes() throws QRBillException {
+        byte[] bytes = getQRCode().getBytes(StandardCharsets.UTF_8);
+        QRBillException tooLong = checkLength(bytes.length);
+        if (tooLong != null)
+            throw tooLong;
+        return bytes;
+    }
+
+    /**
+     * Estimates the QR code the QR Billing object will be encoded in: its version, module count
+     * and remaining byte capacity at error correction level M. Only the serialized length is
+     * needed, so it is counted field by field, without serializing the data or encoding anything.
+     *
+     * @return QRSymbolEstimate. The estimate for the current data.
+     */
+    public QRSymbolEstimate estimateSymbol() {
+        Data[] structure = getStructure();
+        // As in toString(), the line break after each field is counted and whitespace at either
+        // end is trimmed; trailing whitespace is only added once more content follows.
+        int length = 0;
+        int pending = 0;
+        boolean content = false;
+        if (structure != null) {
+            for (Data element : structure) {
+                String text = getFieldText(element);
+                if (text == null)
+                    continue;
+                for (int i = 0; i <= text.length(); i++) {
+                    char c = i < text.length() ? text.charAt(i) : '\n';
+                    if (c <= ' ') {
+                        if (content)
+                            pending++;
+                        continue;
+                    }
+                    content = true;
+                    length += pending + utf8Length(c);
+                    pending = 0;
+                    if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                        length++;
+                        i++;
+                    }
+                }
+            }
+        }
+        return QRSymbolEstimate.forLength(length);
+    }
+
     /**
      * Gets the QR Type Identifier used.
      *
@@ -1052,29 +1091,64 @@ public class QRBill {
         }
     }
 
+    /**
+     * Checks the UTF-8 length of the data against the maximum the QR code may carry. Parsing and
+     * encoding both check the limit here, so that they agree on what is too long.
+     *
+     * @return The error, or null if the data is within the limit.
+     */
+    private QRBillException checkLength(int utf8Length) {
+        if (utf8Length > QRSymbolEstimate.MAX_PAYLOAD_BYTES)
+            return new QRBillException(2, "Input data exceeds maximum allowed limit.");
+        return null;
+    }
+
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            length += utf8Length(c);
+            // A surrogate pair is four bytes: three counted for the high surrogate, one here.
+            if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length++;
+                i++;
+            }
+        }
+        return length;
+    }
+
+    private static int utf8Length(char c) {
+        return c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+    }
+
     private String remNulls (String raw) {
         return raw == null ? "" : raw;
     }
 
     private ArrayList<QRBillException> validateData (String rawData) {
         ArrayList<QRBillException> errors = new ArrayList<QRBillException>();
-        if (rawData == null || rawData.length() == 0)
+        if (rawData == null || rawData.length() == 0) {
             errors.add(new QRBillException(1, "Input data empty or null."));
+            return errors;
+        }
 
-        if (rawData.length() > 997)
-            errors.add(new QRBillException(2, "Input data exceeds maximum allowed limit."));
+        QRBillException tooLong = checkLength(utf8Length(rawData));
+        if (tooLong != null)
+            errors.add(tooLong);
 
         String[] qrData = rawData.trim().split("\n");
         if (qrData.length < 25)
             errors.add(new QRBillException(3, "Malformed Data - insufficient fields."));
 
-        if (!setVersion(qrData[1]))
+        if (qrData.length < 2 || !setVersion(qrData[1]))
             errors.add(new QRBillException(4, "Version invalid or not supported"));
 
         this.actors[0] = new Actor(QRBill.ACTOR_CR);
         this.actors[1] = new Actor(QRBill.ACTOR_UCR);
         this.actors[2] = new Actor(QRBill.ACTOR_UDR);
         Data[] structure = getStructure();
+        if (structure == null)
+            return errors;
         String refType = QRBill.REFTYPE_NON;
         Data[] actorIds;
 
@@ -1215,7 +1289,7 @@ public class QRBill {
         if (!allGood)
             errors.add(new QRBillException(10, "Mandatory actor dependancies not met."));
 
-        return null;
+        return errors;
 
     }
 
@@ -1418,6 +1492,7 @@ public class QRBill {
         public QRBillException(int errorId, String msg) {
             super(msg);
             this.errorId = errorId;
+            Metrics.get().recordError(errorId);
         }
 
         /**
@@ -1451,7 +1526,7 @@ public class QRBill {
         }
     }
 
-    private static class Modulo10 {
+    static class Modulo10 {
         private static final int[][] pattern = {
                 { 0, 9, 4, 6, 8, 2, 7, 1, 3, 5 },
                 { 9, 4, 6, 8, 2, 7, 1, 3, 5, 0 },
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.gfb.qrbill;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A non-blocking logger. Messages are put into a bounded ring buffer and written by a background
+ * thread, so a logging thread never waits on the output stream or on other logging threads.
+ *
+ * <p>Messages are formats with {@code {}} placeholders, which are only filled in on the background
+ * thread, and only for enabled levels; arguments should therefore not change after they are
+ * logged. When the buffer is full, messages are dropped and counted rather than blocking the
+ * caller, and the count is written once the buffer has drained.</p>
+ *
+ * <p>The shared logger, {@link #get()}, writes to standard output. Its level and capacity are
+ * set with the {@code qrbill.log.level} and {@code qrbill.log.capacity} system properties, and its
+ * buffer is flushed when the JVM exits.</p>
+ */
+public class QRBillLogger {
+
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    /**
+     * Default buffer capacity in messages.
+     */
+    public static final int         DEFAULT_CAPACITY    = 4096;
+    /**
+     * The tag of messages logged without one.
+     */
+    public static final String      DEFAULT_TAG         = "QR";
+
+    // How long the writer sleeps when the buffer is empty, unless woken by a new message.
+    private static final long       IDLE_NANOS          = 100_000_000L;
+
+    private static final QRBillLogger SHARED = createShared();
+
+    private final PrintStream out;
+    private final Slot[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile long head;
+    private volatile boolean idle;
+    private volatile boolean closed;
+    private volatile Level level;
+
+    /**
+     * @param out The stream to write to.
+     * @param level The lowest level to log.
+     * @param capacity The buffer capacity in messages, rounded up to a power of two.
+     */
+    public QRBillLogger(PrintStream out, Level level, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.out = out;
+        this.level = level;
+        this.slots = new Slot[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+            sequences.set(i, i);
+        }
+        writer = new Thread(this::drain, "qrbill-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Gets the shared logger, which writes to standard output.
+     */
+    public static QRBillLogger get() {
+        return SHARED;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    /**
+     * Checks whether messages of the level are logged.
+     */
+    public boolean isEnabled(Level level) {
+        return level != Level.OFF && level.compareTo(this.level) >= 0;
+    }
+
+    public void debug(String format, Object arg) {
+        log(Level.DEBUG, DEFAULT_TAG, format, arg, null, null, 1);
+    }
+
+    public void info(String message) {
+        log(Level.INFO, DEFAULT_TAG, message, null, null, null, 0);
+    }
+
+    public void info(String format, Object arg) {
+        log(Level.INFO, DEFAULT_TAG, format, arg, null, null, 1);
+    }
+
+    public void warn(String message) {
+        log(Level.WARN, DEFAULT_TAG, message, null, null, null, 0);
+    }
+
+    public void warn(String format, Object arg) {
+        log(Level.WARN, DEFAULT_TAG, format, arg, null, null, 1);
+    }
+
+    public void warn(String format, Object arg1, Object arg2) {
+        log(Level.WARN, DEFAULT_TAG, format, arg1, arg2, null, 2);
+    }
+
+    /**
+     * Logs a message under a tag, written as {@code [tag] message}.
+     */
+    public void log(Level level, String tag, String message) {
+        log(level, tag, message, null, null, null, 0);
+    }
+
+    /**
+     * Logs a formatted message under a tag. Prefer the fixed-arity methods on hot paths, which do
+     * not allocate an argument array.
+     */
+    public void log(Level level, String tag, String format, Object... args) {
+        if (isEnabled(level))
+            log(level, tag, format, null, null, args, -1);
+    }
+
+    private void log(Level level, String tag, String format, Object arg1, Object arg2, Object[] args, int count) {
+        if (!isEnabled(level) || closed)
+            return;
+
+        long position = tail.get();
+        while (true) {
+            long difference = sequences.get((int) position & mask) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1))
+                    break;
+                position = tail.get();
+            } else if (difference < 0) {
+                dropped.incrementAndGet();
+                return;
+            } else {
+                position = tail.get();
+            }
+        }
+
+        int index = (int) position & mask;
+        Slot slot = slots[index];
+        slot.tag = tag;
+        slot.format = format;
+        slot.arg1 = arg1;
+        slot.arg2 = arg2;
+        slot.args = args;
+        slot.count = count;
+        sequences.set(index, position + 1);
+        if (idle)
+            LockSupport.unpark(writer);
+    }
+
+    /**
+     * Gets how many messages were dropped because the buffer was full.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Waits until every message logged so far has been written.
+     */
+    public void flush() {
+        long target = tail.get();
+        while (head < target && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(100_000L);
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the remaining messages and stops the background thread. Later messages are ignored.
+     */
+    public void close() {
+        flush();
+        closed = true;
+        LockSupport.unpark(writer);
+    }
+
+    private void drain() {
+        StringBuilder line = new StringBuilder(256);
+        long reported = 0;
+        long position = head;
+        while (true) {
+            int index = (int) position & mask;
+            if (sequences.get(index) == position + 1) {
+                Slot slot = slots[index];
+                line.setLength(0);
+                line.append('[').append(slot.tag).append("] ");
+                try {
+                    slot.appendTo(line);
+                } catch (RuntimeException e) {
+                    line.append(slot.format).append(" (").append(e).append(')');
+                }
+                slot.clear();
+                sequences.set(index, position + slots.length);
+                head = ++position;
+                out.println(line);
+                continue;
+            }
+
+            long drops = dropped.get();
+            if (drops != reported) {
+                out.println("[" + DEFAULT_TAG + "] " + (drops - reported) + " log messages dropped, buffer full.");
+                reported = drops;
+            }
+            out.flush();
+            if (closed)
+                return;
+
+            // Re-check after announcing that the writer is idle, so that a message published in
+            // between is either seen here or wakes the writer.
+            idle = true;
+            if (sequences.get((int) position & mask) != position + 1)
+                LockSupport.parkNanos(this, IDLE_NANOS);
+            idle = false;
+        }
+    }
+
+    private static QRBillLogger createShared() {
+        Level level = Level.INFO;
+        String name = System.getProperty("qrbill.log.level");
+        if (name != null) {
+            try {
+                level = Level.valueOf(name.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("[" + DEFAULT_TAG + "] Unknown log level " + name + ", using " + level + ".");
+            }
+        }
+        QRBillLogger logger = new QRBillLogger(System.out, level, Integer.getInteger("qrbill.log.capacity", DEFAULT_CAPACITY));
+        Runtime.getRuntime().addShutdownHook(new Thread(logger::flush, "qrbill-log-flush"));
+        return logger;
+    }
+
+    private static class Slot {
+        private String tag;
+        private String format;
+        private Object arg1;
+        private Object arg2;
+        private Object[] args;
+        // The number of arguments in arg1 and arg2, or -1 if they are in args.
+        private int count;
+
+        void appendTo(StringBuilder line) {
+            if (format == null) {
+                line.append("null");
+                return;
+            }
+            int next = 0;
+            int start = 0;
+            int total = count < 0 ? (args == null ? 0 : args.length) : count;
+            while (next < total) {
+                int placeholder = format.indexOf("{}", start);
+                if (placeholder < 0)
+                    break;
+                line.append(format, start, placeholder).append(count < 0 ? args[next] : next == 0 ? arg1 : arg2);
+                next++;
+                start = placeholder + 2;
+            }
+            line.append(format, start, format.length());
+        }
+
+        void clear() {
+            tag = null;
+            format = null;
+            arg1 = null;
+            arg2 = null;
+            args = null;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.gfb.qrbill;
+
+/**
+ * A service provider interface for metrics on parsing, validating, encoding and decoding QR
+ * bills. The hooks in {@link QRBill} and {@code ZXing} report to the implementation installed in
+ * {@link Metrics}; by default that is {@link #NO_OP}, which costs no more than a comparison.
+ *
+ * <p>Implementations must be thread safe and should not block, as they are called on the hot
+ * paths of every thread. {@link LongAdderMetrics} is a lock-free implementation that can be
+ * exposed through JMX.</p>
+ */
+public interface QRBillMetrics {
+
+    /**
+     * The instrumented operations.
+     */
+    enum Operation { PARSE, VALIDATE, ENCODE, DECODE }
+
+    /**
+     * How an operation ended. A decode that ran out of time or was cancelled did not fail to find
+     * the QR code, so it is told apart from a failure.
+     */
+    enum Outcome { SUCCESS, FAILURE, TIMED_OUT, CANCELLED }
+
+    /**
+     * Records nothing.
+     */
+    QRBillMetrics NO_OP = new QRBillMetrics() {
+        @Override
+        public void record(Operation operation, long nanos, boolean success) {
+        }
+
+        @Override
+        public void recordError(int errorId) {
+        }
+    };
+
+    /**
+     * Records one operation.
+     *
+     * @param operation The operation.
+     * @param nanos How long it took, in nanoseconds.
+     * @param success Whether it succeeded: the data was valid, or the QR code was encoded or decoded.
+     */
+    void record(Operation operation, long nanos, boolean success);
+
+    /**
+     * Records one operation with its outcome. By default, timed out and cancelled operations are
+     * recorded as failures; implementations that count them apart override this.
+     *
+     * @param operation The operation.
+     * @param nanos How long it took, in nanoseconds.
+     * @param outcome How it ended.
+     */
+    default void record(Operation operation, long nanos, Outcome outcome) {
+        record(operation, nanos, outcome == Outcome.SUCCESS);
+    }
+
+    /**
+     * Records one validation error found while parsing or validating a bill.
+     *
+     * @param errorId The error ID of the {@link QRBill.QRBillException}.
+     */
+    void recordError(int errorId);
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.gfb.qrbill;
+
+/**
+ * The size of the QR code a payload will be encoded in, worked out from the payload length alone:
+ * UTF-8 byte mode with a UTF-8 ECI header at error correction level M, exactly as
+ * {@code QRBillEncoder} encodes it. Nothing is encoded or rendered, so an estimate is cheap enough
+ * to be taken on every keystroke.
+ *
+ * <p>The level M capacities are a plain table, so this class does not depend on ZXing.</p>
+ */
+public class QRSymbolEstimate {
+
+    /**
+     * The largest payload allowed in a QR bill, in bytes.
+     */
+    public static final int         MAX_PAYLOAD_BYTES   = 997;
+
+    // Data codewords at level M, indexed by version number, see ISO/IEC 18004 table 7.
+    private static final int[]      DATA_CODEWORDS      = {
+            0, 16, 28, 44, 64, 86, 108, 124, 154, 182, 216,
+            254, 290, 334, 365, 415, 453, 507, 563, 627, 669,
+            714, 782, 860, 914, 1000, 1062, 1128, 1193, 1267, 1373,
+            1455, 1541, 1631, 1725, 1812, 1914, 1992, 2102, 2216, 2334 };
+
+    // Mode and ECI designator headers in bits.
+    private static final int        MODE_BITS           = 4;
+    private static final int        ECI_BITS            = 4 + 8;
+
+    private final int length;
+    private final int version;
+
+    private QRSymbolEstimate(int length, int version) {
+        this.length = length;
+        this.version = version;
+    }
+
+    /**
+     * Estimates the symbol for a payload.
+     *
+     * @param length The length of the payload in UTF-8 bytes.
+     * @return The estimate; never null.
+     */
+    public static QRSymbolEstimate forLength(int length) {
+        return new QRSymbolEstimate(length, chooseVersion(length, true));
+    }
+
+    /**
+     * Gets the smallest level M version that holds a byte mode payload.
+     *
+     * @param length The length of the payload in bytes.
+     * @param eci Whether an ECI header precedes the byte segment.
+     * @return The version, or -1 if not even version 40 is large enough.
+     */
+    static int chooseVersion(int length, boolean eci) {
+        for (int v = 1; v <= 40; v++) {
+            if (capacity(v, eci) >= length)
+                return v;
+        }
+        return -1;
+    }
+
+    /**
+     * The most bytes a byte mode segment can hold in a level M symbol of the version.
+     */
+    private static int capacity(int version, boolean eci) {
+        int header = (eci ? ECI_BITS : 0) + MODE_BITS + (version < 10 ? 8 : 16);
+        return (DATA_CODEWORDS[version] * 8 - header) / 8;
+    }
+
+    /**
+     * Gets the length of the payload in UTF-8 bytes.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the QR code version, from 1 to 40.
+     *
+     * @return The version, or -1 if the payload does not fit in any version.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the number of modules along each side of the symbol, without the quiet zone.
+     *
+     * @return The module count, or 0 if the payload does not fit in any version.
+     */
+    public int getModuleCount() {
+        return version < 0 ? 0 : 17 + 4 * version;
+    }
+
+    /**
+     * Gets how many more bytes the payload can grow by before a larger version is needed.
+     *
+     * @return The remaining capacity in bytes, or 0 if the payload does not fit in any version.
+     */
+    public int getRemainingCapacity() {
+        return version < 0 ? 0 : capacity(version, true) - length;
+    }
+
+    /**
+     * Checks whether the payload is within the size limit of a QR bill.
+     */
+    public boolean isWithinLimit() {
+        return length <= MAX_PAYLOAD_BYTES;
+    }
+
+    @Override
+    public String toString() {
+        return "version " + version + ", " + getModuleCount() + " modules, " + getRemainingCapacity() + " bytes left";
+    }
+}
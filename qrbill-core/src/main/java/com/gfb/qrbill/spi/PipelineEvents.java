@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.gfb.qrbill.spi;
+
+/**
+ * Emits a Java Flight Recorder event, {@code com.gfb.qrbill.Stage}, for each stage of reading,
+ * generating, parsing and validating QR bills, so that a slow call can be broken down in a
+ * recording. A stage is timed between {@link #begin()} and {@link #end}:
+ *
+ * <pre>
+ * Object event = PipelineEvents.begin();
+ * ...
+ * PipelineEvents.end(event, PipelineEvents.Stage.DECODE, size, width, height, strategy, outcome);
+ * </pre>
+ *
+ * <p>When the event is not being recorded, {@link #begin()} returns null without allocating, and
+ * {@link #end} returns at once. The JFR classes are compiled for Java 11 and loaded by name; on a
+ * Java 8 runtime, events are never recorded.</p>
+ *
+ * <p>This is a hook for the modules of the library, such as qrbill-zxing, rather than an API
+ * for applications.</p>
+ */
+public final class PipelineEvents {
+
+    /**
+     * The instrumented stages. {@link #DEADLINE} is not a stage of its own but a marker, without
+     * a duration, for a decode call that gave up because its deadline expired.
+     */
+    public enum Stage { LOAD, BINARIZE, DETECT, DECODE, PARSE, VALIDATE, ENCODE, RENDER, WRITE, DEADLINE }
+
+    /**
+     * Records stages. Implemented on top of JFR by {@code JfrStageRecorder}.
+     */
+    interface Recorder {
+
+        /**
+         * @return The event, or null if it is not being recorded.
+         */
+        Object begin();
+
+        void end(Object event, Stage stage, long payloadSize, int width, int height, Object strategy, String outcome);
+    }
+
+    private static final String     RECORDER_CLASS  = "com.gfb.qrbill.spi.JfrStageRecorder";
+    private static final Recorder   RECORDER        = load();
+
+    private PipelineEvents() {
+    }
+
+    /**
+     * Begins timing a stage.
+     *
+     * @return The event to pass to {@link #end}, or null if it is not being recorded.
+     */
+    public static Object begin() {
+        return RECORDER == null ? null : RECORDER.begin();
+    }
+
+    /**
+     * Ends and commits a stage begun with {@link #begin()}. The strategy is only turned into a
+     * string when the event is committed.
+     *
+     * @param event The event, or null to do nothing.
+     * @param payloadSize The size of the image file, or of the payload.
+     * @param width The image or matrix width in pixels, or 0.
+     * @param height The image or matrix height in pixels, or 0.
+     * @param strategy The image format, decoding strategy or encoder, or null.
+     * @param outcome What came of the stage.
+     */
+    public static void end(Object event, Stage stage, long payloadSize, int width, int height, Object strategy, String outcome) {
+        if (event != null)
+            RECORDER.end(event, stage, payloadSize, width, height, strategy, outcome);
+    }
+
+    private static Recorder load() {
+        try {
+            return (Recorder) Class.forName(RECORDER_CLASS, true, PipelineEvents.class.getClassLoader())
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // No JFR on this runtime, or a Java 8 runtime that cannot load the Java 11 classes.
+            return null;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.gfb.qrbill.spi;
+
+import jdk.jfr.EventType;
+
+/**
+ * Records the stages of {@link PipelineEvents} as {@link StageEvent}s. The event type is looked
+ * up once, so that a stage that is not being recorded costs a flag check and allocates nothing.
+ *
+ * <p>This class is compiled for Java 11 and loaded by name, so that the rest of the library still
+ * runs on Java 8.</p>
+ */
+final class JfrStageRecorder implements PipelineEvents.Recorder {
+
+    private final EventType type = EventType.getEventType(StageEvent.class);
+
+    @Override
+    public Object begin() {
+        if (!type.isEnabled())
+            return null;
+        StageEvent event = new StageEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void end(Object event, PipelineEvents.Stage stage, long payloadSize, int width, int height, Object strategy, String outcome) {
+        ((StageEvent) event).finish(stage.name(), payloadSize, width, height, strategy, outcome);
+    }
+}
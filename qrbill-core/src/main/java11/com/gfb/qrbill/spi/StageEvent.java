@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.gfb.qrbill.spi;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event for one stage of reading, generating, parsing or validating a QR
+ * bill. Like {@link JfrStageRecorder}, the only class that refers to it, it is compiled for
+ * Java 11 and never loaded on a runtime without JFR.
+ */
+@Name("com.gfb.qrbill.Stage")
+@Label("QR Bill Stage")
+@Category("QR Bill")
+@Description("One stage of reading, generating, parsing or validating a QR bill")
+@StackTrace(false)
+class StageEvent extends jdk.jfr.Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Payload Size")
+    @Description("Size of the image file or of the payload")
+    @DataAmount
+    long payloadSize;
+
+    @Label("Width")
+    @Description("Image or matrix width in pixels")
+    int width;
+
+    @Label("Height")
+    @Description("Image or matrix height in pixels")
+    int height;
+
+    @Label("Strategy")
+    @Description("Image format, decoding tier or strategy, or encoder")
+    String strategy;
+
+    @Label("Outcome")
+    String outcome;
+
+    void finish(String stage, long payloadSize, int width, int height, Object strategy, String outcome) {
+        end();
+        if (!shouldCommit())
+            return;
+        this.stage = stage;
+        this.payloadSize = payloadSize;
+        this.width = width;
+        this.height = height;
+        this.strategy = strategy == null ? null : strategy.toString();
+        this.outcome = outcome;
+        commit();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.gfb.qrbill;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that parsing, validating and serializing a bill never loads a class from AWT, ImageIO or
+ * ZXing. The core classes are loaded afresh by a class loader that records every class they ask
+ * for, and the bill is handled through reflection, so that nothing is resolved through this test.
+ */
+public class HeadlessTests {
+
+    private static final String     PAYLOAD         = "SPC\n0200\n1\nCH7606713444688937324\nS\nVerein fuer Gemeinwohl\n"
+            + "Musterstrasse\n97\n6004\nLuzern\nCH\nS\n\n\n\n\n\n\n0.47\nCHF\nS\n\n\n\n\n\n\nNON\n\n"
+            + "Rechnung Nr. 06359054\nEPD\n//S1/10/07772080/11/723656/30/589440163/32/7.7";
+
+    private static final String[]   FORBIDDEN       = { "java.awt.", "javax.imageio.", "com.google.zxing." };
+
+    @Test
+    public void validationTests() throws Exception {
+        File classes = new File(QRBill.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        RecordingClassLoader loader = new RecordingClassLoader(classes.toURI().toURL());
+
+        Class<?> type = loader.loadClass(QRBill.class.getName());
+        assertTrue("QRBill loaded afresh", type.getClassLoader() == loader);
+        Object bill = type.getConstructor(String.class).newInstance(PAYLOAD);
+        assertTrue("Bill is valid", (Boolean) type.getMethod("isValid").invoke(bill));
+        assertTrue("Bill round trips", PAYLOAD.equals(type.getMethod("getQRCode").invoke(bill)));
+        type.getMethod("estimateSymbol").invoke(bill);
+
+        for (String name : loader.requested) {
+            for (String prefix : FORBIDDEN)
+                assertTrue("Validation loaded " + name, !name.startsWith(prefix));
+        }
+    }
+
+    /**
+     * Loads classes from the core classes first, and records the name of every class requested.
+     */
+    private static class RecordingClassLoader extends URLClassLoader {
+        private final Set<String> requested = new TreeSet<>();
+
+        RecordingClassLoader(URL classes) {
+            super(new URL[] { classes }, HeadlessTests.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+                requested.add(name);
+                Class<?> loaded = findLoadedClass(name);
+                if (loaded == null && name.startsWith("com.gfb.qrbill.")) {
+                    try {
+                        loaded = findClass(name);
+                    } catch (ClassNotFoundException e) {
+                        // Not a core class; delegate.
+                    }
+                }
+                if (loaded == null)
+                    return super.loadClass(name, resolve);
+                if (resolve)
+                    resolveClass(loaded);
+                return loaded;
+            }
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.gfb.qrbill.testdata;
+
+import com.gfb.qrbill.QRBill;
+import com.gfb.qrbill.zxing.ZXing;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * A controlled degradation of a rendered QR bill, imitating a poor scan: print resolution,
+ * rotation, blur, sensor noise and JPEG compression, applied in that order. Instances are
+ * immutable; the noise is drawn from the random generator passed in, so a seeded generator gives
+ * the same image every time.
+ */
+public class ScanDegradation {
+
+    /**
+     * No degradation: 300 dpi, upright, sharp, noiseless and lossless.
+     */
+    public static final ScanDegradation NONE = new ScanDegradation(300, 0, 0, 0, 0);
+
+    private static final double     SIZE_MM     = 46.0;
+
+    private final int dpi;
+    private final double rotation;
+    private final int blurRadius;
+    private final double noise;
+    private final int jpegQuality;
+
+    /**
+     * @param dpi The resolution the QR code is rendered at.
+     * @param rotation The rotation in degrees, clockwise.
+     * @param blurRadius The radius of the blur in pixels, 0 for none. Two box blur passes are
+     *                   applied, which approximates a Gaussian.
+     * @param noise The standard deviation of the Gaussian noise added to each pixel, in grey levels.
+     * @param jpegQuality The JPEG quality from 1 to 100, or 0 to keep the image lossless.
+     */
+    public ScanDegradation(int dpi, double rotation, int blurRadius, double noise, int jpegQuality) {
+        this.dpi = dpi;
+        this.rotation = rotation;
+        this.blurRadius = blurRadius;
+        this.noise = noise;
+        this.jpegQuality = jpegQuality;
+    }
+
+    /**
+     * Draws a random degradation, from clean to barely readable.
+     */
+    public static ScanDegradation random(Random random) {
+        return new ScanDegradation(150 + 50 * random.nextInt(10), random.nextGaussian() * 4,
+                random.nextInt(3), random.nextDouble() * 20, random.nextInt(4) == 0 ? 0 : 30 + random.nextInt(66));
+    }
+
+    public ScanDegradation withDpi(int dpi) {
+        return new ScanDegradation(dpi, rotation, blurRadius, noise, jpegQuality);
+    }
+
+    public ScanDegradation withRotation(double rotation) {
+        return new ScanDegradation(dpi, rotation, blurRadius, noise, jpegQuality);
+    }
+
+    public ScanDegradation withBlur(int blurRadius) {
+        return new ScanDegradation(dpi, rotation, blurRadius, noise, jpegQuality);
+    }
+
+    public ScanDegradation withNoise(double noise) {
+        return new ScanDegradation(dpi, rotation, blurRadius, noise, jpegQuality);
+    }
+
+    public ScanDegradation withJpegQuality(int jpegQuality) {
+        return new ScanDegradation(dpi, rotation, blurRadius, noise, jpegQuality);
+    }
+
+    /**
+     * Renders the QR code of the bill and degrades it.
+     *
+     * @return A greyscale image.
+     */
+    public BufferedImage apply(QRBill bill, Random random) throws QRBill.QRBillException, WriterException, IOException {
+        BitMatrix matrix = ZXing.renderQRBill(bill, SIZE_MM, dpi);
+        int width = matrix.getWidth();
+        int height = matrix.getHeight();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++)
+                pixels[y * width + x] = (byte) (matrix.get(x, y) ? 0 : 0xFF);
+        }
+        return degrade(image, random);
+    }
+
+    /**
+     * Degrades an image, without changing its resolution. The image itself is left unchanged.
+     *
+     * @return A new greyscale image.
+     */
+    public BufferedImage apply(BufferedImage image, Random random) throws IOException {
+        BufferedImage grey = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = grey.createGraphics();
+        try {
+            g.drawImage(image, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        return degrade(grey, random);
+    }
+
+    /**
+     * Degrades a greyscale image of type {@link BufferedImage#TYPE_BYTE_GRAY}, in place unless it
+     * is rotated or compressed.
+     */
+    private BufferedImage degrade(BufferedImage image, Random random) throws IOException {
+        if (rotation != 0)
+            image = rotate(image, rotation);
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (blurRadius > 0) {
+            for (int pass = 0; pass < 2; pass++) {
+                boxBlur(pixels, width, height, blurRadius, true);
+                boxBlur(pixels, width, height, blurRadius, false);
+            }
+        }
+        if (noise > 0) {
+            for (int i = 0; i < pixels.length; i++) {
+                int value = (pixels[i] & 0xFF) + (int) Math.round(random.nextGaussian() * noise);
+                pixels[i] = (byte) Math.max(0, Math.min(0xFF, value));
+            }
+        }
+        if (jpegQuality > 0)
+            image = ImageIO.read(new ByteArrayInputStream(encode(image)));
+        return image;
+    }
+
+    /**
+     * Encodes the image as JPEG at the quality of this degradation, or as PNG if it is lossless.
+     */
+    public byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (jpegQuality <= 0) {
+            ImageIO.write(image, "png", out);
+            return out.toByteArray();
+        }
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(jpegQuality / 100F);
+        ImageOutputStream stream = ImageIO.createImageOutputStream(out);
+        try {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+            stream.close();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * The file extension of the images {@link #encode(BufferedImage)} writes.
+     */
+    public String getExtension() {
+        return jpegQuality <= 0 ? "png" : "jpg";
+    }
+
+    public int getDpi() {
+        return dpi;
+    }
+
+    public double getRotation() {
+        return rotation;
+    }
+
+    public int getBlurRadius() {
+        return blurRadius;
+    }
+
+    public double getNoise() {
+        return noise;
+    }
+
+    public int getJpegQuality() {
+        return jpegQuality;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%d dpi, %.1f deg, blur %d, noise %.1f, %s", dpi, rotation, blurRadius, noise,
+                jpegQuality <= 0 ? "lossless" : "JPEG " + jpegQuality);
+    }
+
+    /**
+     * Writes degraded scans of the first valid samples of a sample file into a directory: an image
+     * and a UTF-8 text file with the payload for each, named by index.
+     *
+     * @param samples The samples, as written by {@link SyntheticBills#write(File, int)}.
+     * @param count The most scans to write.
+     * @param seed The seed of the degradations and their noise.
+     * @return The number of scans written; fewer than the count if the file runs out of valid
+     * samples.
+     */
+    public static int writeScans(SyntheticBills.Reader samples, int count, long seed, File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create " + dir);
+        Random random = new Random(seed);
+        int written = 0;
+        for (SyntheticBills.Sample sample = samples.next(); sample != null && written < count; sample = samples.next()) {
+            if (!sample.isValid())
+                continue;
+            ScanDegradation degradation = random(random);
+            String name = String.valueOf(1000000 + written).substring(1);
+            try {
+                byte[] image = degradation.encode(degradation.apply(new QRBill(sample.getPayload()), random));
+                OutputStream out = new FileOutputStream(new File(dir, name + "." + degradation.getExtension()));
+                try {
+                    out.write(image);
+                } finally {
+                    out.close();
+                }
+            } catch (QRBill.QRBillException | WriterException e) {
+                throw new IOException("Cannot render sample " + name, e);
+            }
+            Writer text = new OutputStreamWriter(new FileOutputStream(new File(dir, name + ".txt")), "UTF-8");
+            try {
+                text.write(sample.getPayload());
+            } finally {
+                text.close();
+            }
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * Rotates the image about its centre onto a white canvas large enough to hold it.
+     */
+    private static BufferedImage rotate(BufferedImage image, double degrees) {
+        double radians = Math.toRadians(degrees);
+        double sin = Math.abs(Math.sin(radians));
+        double cos = Math.abs(Math.cos(radians));
+        int width = (int) Math.ceil(image.getWidth() * cos + image.getHeight() * sin);
+        int height = (int) Math.ceil(image.getWidth() * sin + image.getHeight() * cos);
+        BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = out.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.translate(width / 2.0, height / 2.0);
+            g.rotate(radians);
+            g.drawImage(image, -image.getWidth() / 2, -image.getHeight() / 2, null);
+        } finally {
+            g.dispose();
+        }
+        return out;
+    }
+
+    /**
+     * Blurs the pixels in place with a box filter along rows or columns, using a running sum.
+     * Pixels beyond the edges repeat the edge pixel.
+     */
+    private static void boxBlur(byte[] pixels, int width, int height, int radius, boolean rows) {
+        int lines = rows ? height : width;
+        int length = rows ? width : height;
+        int step = rows ? 1 : width;
+        int[] line = new int[length];
+        int window = 2 * radius + 1;
+        for (int l = 0; l < lines; l++) {
+            int base = rows ? l * width : l;
+            for (int i = 0; i < length; i++)
+                line[i] = pixels[base + i * step] & 0xFF;
+            int sum = 0;
+            for (int i = -radius; i <= radius; i++)
+                sum += line[Math.max(0, Math.min(length - 1, i))];
+            for (int i = 0; i < length; i++) {
+                pixels[base + i * step] = (byte) ((sum + radius) / window);
+                sum += line[Math.min(length - 1, i + radius + 1)] - line[Math.max(0, i - radius)];
+            }
+        }
+    }
+}
@@ -0,0 +1,439 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.gfb.qrbill.testdata;
+
+import com.gfb.qrbill.QRBill;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A seeded generator of QR bill payloads for benchmarks and tests. The same seed always produces
+ * the same sequence, so runs on different machines measure the same data.
+ *
+ * <p>Bills are drawn from rough real-world proportions: mostly version 2.0, structured and
+ * combined addresses, QRR, SCOR and NON references with valid check digits, optional ultimate
+ * debtors, messages, billing information and alternative schemas, names and places with
+ * accented characters. A configurable share is then deliberately broken in one of the ways listed
+ * in {@link Defect}.</p>
+ *
+ * <p>Samples can be stored in a compact gzipped file with {@link #write(File, int)} and streamed
+ * back with {@link Reader}. Run {@link #main(String[])} to write a file, and optionally degraded
+ * scan images of its first valid samples, see {@link ScanDegradation}.</p>
+ */
+public class SyntheticBills {
+
+    /**
+     * How a sample was deliberately broken.
+     */
+    public enum Defect { NONE, BAD_IBAN_COUNTRY, BAD_QRR_CHECK_DIGIT, BAD_CURRENCY, UNSUPPORTED_VERSION, MISSING_FIELDS, TOO_LONG }
+
+    /**
+     * A generated payload and how, if at all, it was broken.
+     */
+    public static class Sample {
+        private final String payload;
+        private final Defect defect;
+
+        Sample(String payload, Defect defect) {
+            this.payload = payload;
+            this.defect = defect;
+        }
+
+        public String getPayload() {
+            return payload;
+        }
+
+        public Defect getDefect() {
+            return defect;
+        }
+
+        public boolean isValid() {
+            return defect == Defect.NONE;
+        }
+    }
+
+    /**
+     * The default share of deliberately invalid samples.
+     */
+    public static final double      DEFAULT_INVALID_RATIO   = 0.1;
+
+    // File format: magic, format version, seed, count, then one defect byte and UTF string each.
+    private static final int        FILE_MAGIC      = 0x51524246;
+    private static final int        FILE_VERSION    = 1;
+
+    private static final String[]   FIRST_NAMES     = { "Pia", "Hans", "Anna", "Luca", "Noah", "Léa", "Jürg", "Chloé",
+            "Marco", "Sophie", "Reto", "Zoë", "Matteo", "Céline", "Urs", "Mia" };
+    private static final String[]   LAST_NAMES      = { "Müller", "Meier", "Schmid", "Keller", "Weber", "Huber", "Rossi",
+            "Favre", "Schneider", "Rutschmann", "Bühler", "Gerber", "Brunner", "Baumann", "Frei", "Zürcher" };
+    private static final String[]   COMPANIES       = { "Robert Schneider AG", "Muster Krankenkasse", "Hänggi & Söhne GmbH",
+            "Boulangerie Favre SA", "Elektro Bühler", "Stadtwerke", "Garage du Lac Sàrl", "Verein für Gemeinwohl" };
+    private static final String[]   STREETS         = { "Rue du Lac", "Grosse Marktgasse", "Musterstrasse", "Bahnhofstrasse",
+            "Via Cantonale", "Chemin des Vignes", "Hauptstrasse", "Dorfstrasse", "Seestrasse", "Avenue de la Gare" };
+    private static final String[][] PLACES          = { { "2501", "Biel" }, { "9400", "Rorschach" }, { "8001", "Zürich" },
+            { "1204", "Genève" }, { "3011", "Bern" }, { "4051", "Basel" }, { "6900", "Lugano" }, { "1003", "Lausanne" },
+            { "6004", "Luzern" }, { "9000", "St. Gallen" }, { "9490", "Vaduz" }, { "1700", "Fribourg" } };
+    private static final String[]   MESSAGES        = { "Auftrag vom ", "Rechnung Nr. ", "Facture n° ", "Fattura n. ",
+            "Mitgliederbeitrag ", "Abonnement " };
+    private static final String[]   ALT_SCHEMAS     = { "eBill/B/", "eBill/R/", "S1/10/", "OA1/" };
+    private static final String     ACCENTED        = "ÄÖÜäöüàâçéèêëîïôùûÿ";
+    private static final int[]      MODULO10        = { 0, 9, 4, 6, 8, 2, 7, 1, 3, 5 };
+
+    private final Random random;
+    private final long seed;
+    private final double invalidRatio;
+
+    public SyntheticBills(long seed) {
+        this(seed, DEFAULT_INVALID_RATIO);
+    }
+
+    /**
+     * @param seed The random seed.
+     * @param invalidRatio The share of samples, from 0 to 1, that are deliberately broken.
+     */
+    public SyntheticBills(long seed, double invalidRatio) {
+        this.random = new Random(seed);
+        this.seed = seed;
+        this.invalidRatio = invalidRatio;
+    }
+
+    /**
+     * Generates the next sample.
+     */
+    public Sample next() {
+        QRBill bill = nextBill();
+        String payload = bill.toString();
+        if (random.nextDouble() >= invalidRatio)
+            return new Sample(payload, Defect.NONE);
+        Defect[] defects = Defect.values();
+        Defect defect = defects[1 + random.nextInt(defects.length - 1)];
+        return new Sample(breakPayload(payload, bill, defect), defect);
+    }
+
+    /**
+     * Generates the next valid bill, without breaking it.
+     */
+    public QRBill nextBill() {
+        QRBill bill = new QRBill();
+        boolean version1 = random.nextInt(10) == 0;
+        bill.setVersion(version1 ? 1.0F : 2.0F);
+
+        int referenceChoice = random.nextInt(100);
+        String referenceType = referenceChoice < 40 ? QRBill.REFTYPE_QRR : referenceChoice < 65 ? QRBill.REFTYPE_SCOR : QRBill.REFTYPE_NON;
+        bill.setIBAN(iban(random.nextInt(8) == 0 ? "LI" : "CH", QRBill.REFTYPE_QRR.equals(referenceType)));
+
+        setActor(bill, QRBill.ACTOR_CR, version1, true);
+        if (random.nextInt(5) > 0)
+            setActor(bill, QRBill.ACTOR_UDR, version1, random.nextInt(4) == 0);
+
+        // Amounts are spread over several orders of magnitude; some bills leave them open.
+        if (random.nextInt(7) > 0)
+            bill.setAmount(Math.round(Math.exp(3 + 2 * random.nextGaussian()) * 100) / 100F);
+        bill.setCurrency(random.nextInt(7) == 0 ? QRBill.CURRENCY_EUR : QRBill.CURRENCY_CHF);
+        if (version1)
+            bill.setDueDate(2019 + random.nextInt(5), 1 + random.nextInt(12), 1 + random.nextInt(28));
+
+        if (QRBill.REFTYPE_QRR.equals(referenceType)) {
+            String reference = digits(26);
+            bill.setReference(referenceType, reference + getCheckDigit(reference));
+        } else if (QRBill.REFTYPE_SCOR.equals(referenceType)) {
+            bill.setReference(referenceType, creditorReference(alphanumeric(1 + random.nextInt(21))));
+        } else {
+            bill.setReference();
+        }
+
+        if (random.nextBoolean())
+            bill.setUnstructuredMsg(MESSAGES[random.nextInt(MESSAGES.length)] + digits(4 + random.nextInt(8)));
+        if (!version1 && random.nextInt(5) == 0)
+            bill.setBillInfo("//S1/10/" + digits(8) + "/11/" + digits(6) + "/30/" + digits(9) + "/32/7.7");
+        if (random.nextInt(10) == 0)
+            bill.setAlternativeSchema(ALT_SCHEMAS[random.nextInt(ALT_SCHEMAS.length)] + alphanumeric(10 + random.nextInt(60)), 0);
+        if (random.nextInt(40) == 0)
+            bill.setAlternativeSchema(ALT_SCHEMAS[random.nextInt(ALT_SCHEMAS.length)] + alphanumeric(10 + random.nextInt(60)), 1);
+        return bill;
+    }
+
+    private void setActor(QRBill bill, int actor, boolean version1, boolean company) {
+        setActor(bill, actor, version1, company ? COMPANIES[random.nextInt(COMPANIES.length)]
+                : FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)]);
+    }
+
+    private void setActor(QRBill bill, int actor, boolean version1, String name) {
+        String street = STREETS[random.nextInt(STREETS.length)];
+        String number = String.valueOf(1 + random.nextInt(150)) + (random.nextInt(10) == 0 ? "a" : "");
+        String[] place = PLACES[random.nextInt(PLACES.length)];
+        String country = "9490".equals(place[0]) ? "LI" : "CH";
+        if (version1)
+            bill.setActor(actor, name, street, number, place[0], place[1], country);
+        else if (random.nextInt(3) == 0)
+            bill.setActor(actor, name, QRBill.ADDTYPE_COMBINED, street + " " + number, place[0] + " " + place[1], "", "", country);
+        else
+            bill.setActor(actor, name, QRBill.ADDTYPE_STRUCTURED, street, number, place[0], place[1], country);
+    }
+
+    private String breakPayload(String payload, QRBill bill, Defect defect) {
+        List<String> lines = new ArrayList<String>(Arrays.asList(payload.split("\n", -1)));
+        switch (defect) {
+            case BAD_IBAN_COUNTRY:
+                lines.set(3, "DE" + lines.get(3).substring(2));
+                break;
+            case BAD_QRR_CHECK_DIGIT:
+                // The reference type and reference follow the ultimate debtor in both versions.
+                int index = bill.getVersion() < 2.0F ? 25 : 27;
+                while (lines.size() < index + 2)
+                    lines.add("");
+                String reference = digits(26);
+                int check = getCheckDigit(reference);
+                lines.set(index, QRBill.REFTYPE_QRR);
+                lines.set(index + 1, reference + (check + 1) % 10);
+                break;
+            case BAD_CURRENCY:
+                for (int i = 0; i < lines.size(); i++) {
+                    if (lines.get(i).equals(QRBill.CURRENCY_CHF) || lines.get(i).equals(QRBill.CURRENCY_EUR)) {
+                        lines.set(i, "USD");
+                        break;
+                    }
+                }
+                break;
+            case UNSUPPORTED_VERSION:
+                lines.set(1, "0300");
+                break;
+            case MISSING_FIELDS:
+                lines = lines.subList(0, 2 + random.nextInt(lines.size() / 2));
+                break;
+            case TOO_LONG:
+                // Every field stays within its own limit, but accented characters take two UTF-8
+                // bytes each, which takes the whole bill over 997 bytes.
+                setActor(bill, QRBill.ACTOR_CR, bill.getVersion() < 2.0F, accented(70));
+                setActor(bill, QRBill.ACTOR_UDR, bill.getVersion() < 2.0F, accented(70));
+                bill.setUnstructuredMsg(accented(140));
+                bill.setAlternativeSchema(ALT_SCHEMAS[0] + accented(100 - ALT_SCHEMAS[0].length()), 0);
+                bill.setAlternativeSchema(ALT_SCHEMAS[1] + accented(100 - ALT_SCHEMAS[1].length()), 1);
+                return bill.toString();
+            default:
+                break;
+        }
+        StringBuilder sb = new StringBuilder(payload.length());
+        for (int i = 0; i < lines.size(); i++)
+            sb.append(i == 0 ? "" : "\n").append(lines.get(i));
+        return sb.toString();
+    }
+
+    /**
+     * A 21 character IBAN with valid check digits. QR references need a QR-IBAN, whose institution
+     * identification lies between 30000 and 31999.
+     */
+    private String iban(String country, boolean qrIban) {
+        int institution = qrIban ? 30000 + random.nextInt(2000) : 100 + random.nextInt(29900);
+        String bban = String.valueOf(100000 + institution).substring(1) + digits(12);
+        int check = 98 - mod97(bban + letters(country) + "00");
+        return country + (check < 10 ? "0" : "") + check + bban;
+    }
+
+    /**
+     * An ISO 11649 creditor reference: "RF", two check digits and the reference.
+     */
+    private static String creditorReference(String reference) {
+        int check = 98 - mod97(letters(reference) + letters("RF") + "00");
+        return "RF" + (check < 10 ? "0" : "") + check + reference;
+    }
+
+    /**
+     * Gets the recursive modulo 10 check digit that completes a QR reference.
+     *
+     * @param digits The first 26 digits of the reference.
+     * @return The check digit, from 0 to 9.
+     */
+    public static int getCheckDigit(String digits) {
+        int carry = 0;
+        for (int i = 0; i < digits.length(); i++)
+            carry = MODULO10[(carry + digits.charAt(i) - '0') % 10];
+        return (10 - carry) % 10;
+    }
+
+    private static int mod97(String digits) {
+        return new BigInteger(digits).mod(BigInteger.valueOf(97)).intValue();
+    }
+
+    private static String letters(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            sb.append(Character.isDigit(c) ? String.valueOf(c) : String.valueOf(c - 'A' + 10));
+        }
+        return sb.toString();
+    }
+
+    private String digits(int count) {
+        StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++)
+            sb.append((char) ('0' + random.nextInt(10)));
+        return sb.toString();
+    }
+
+    private String accented(int count) {
+        StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++)
+            sb.append(ACCENTED.charAt(random.nextInt(ACCENTED.length())));
+        return sb.toString();
+    }
+
+    private String alphanumeric(int count) {
+        StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            int c = random.nextInt(36);
+            sb.append((char) (c < 10 ? '0' + c : 'A' + c - 10));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the next samples to a gzipped file.
+     *
+     * @param file The destination.
+     * @param count The number of samples.
+     */
+    public void write(File file, int count) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))));
+        try {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeLong(seed);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                Sample sample = next();
+                out.writeByte(sample.getDefect().ordinal());
+                out.writeUTF(sample.getPayload());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Streams the samples of a file written by {@link #write(File, int)}.
+     */
+    public static class Reader implements java.io.Closeable {
+        private final DataInputStream in;
+        private final long seed;
+        private final int count;
+
+        public Reader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                in.close();
+                throw new IOException("Not a synthetic bill file: " + file);
+            }
+            seed = in.readLong();
+            count = in.readInt();
+        }
+
+        /**
+         * Reads the next sample.
+         *
+         * @return The sample, or null at the end of the file.
+         */
+        public Sample next() throws IOException {
+            int defect;
+            try {
+                defect = in.readByte();
+            } catch (EOFException e) {
+                return null;
+            }
+            return new Sample(in.readUTF(), Defect.values()[defect]);
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes a sample file and, optionally, degraded scan images of its first valid samples.
+     *
+     * <pre>
+     * SyntheticBills --out=bills.gz [--count=1000000] [--seed=1] [--invalid=0.1]
+     *     [--images=dir] [--image-count=100]
+     * </pre>
+     */
+    public static void main(String[] args) throws Exception {
+        File out = null;
+        File images = null;
+        int count = 1000000;
+        int imageCount = 100;
+        long seed = 1;
+        double invalid = DEFAULT_INVALID_RATIO;
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--out="))
+                out = new File(value);
+            else if (arg.startsWith("--count="))
+                count = Integer.parseInt(value);
+            else if (arg.startsWith("--seed="))
+                seed = Long.parseLong(value);
+            else if (arg.startsWith("--invalid="))
+                invalid = Double.parseDouble(value);
+            else if (arg.startsWith("--images="))
+                images = new File(value);
+            else if (arg.startsWith("--image-count="))
+                imageCount = Integer.parseInt(value);
+            else
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+        }
+        if (out == null)
+            throw new IllegalArgumentException("--out is required.");
+
+        new SyntheticBills(seed, invalid).write(out, count);
+        System.out.println("Wrote " + count + " samples to " + out + " (" + out.length() + " bytes).");
+        if (images != null) {
+            Reader samples = new Reader(out);
+            try {
+                int written = ScanDegradation.writeScans(samples, imageCount, seed, images);
+                System.out.println("Wrote " + written + " scans to " + images + ".");
+            } finally {
+                samples.close();
+            }
+        }
+    }
+}
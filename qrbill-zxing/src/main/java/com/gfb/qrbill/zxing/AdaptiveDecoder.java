@@ -0,0 +1,377 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.gfb.qrbill.zxing;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A decoder that learns, for each source of images, which {@link DecodeStrategy} works best.
+ * Callers tag each image with its source, such as a scanner model or an app name, and the decoder
+ * keeps the attempts, successes and latency of every strategy per tag.
+ *
+ * <p>Strategies are tried in order of their mean latency divided by their success rate, which
+ * minimises the expected time to the first success when attempts succeed independently, so the
+ * cheapest strategy that usually works goes first. Strategies that have not been tried for a tag
+ * keep their configured order after the ones that have. With the exploration rate as probability,
+ * a random other strategy is moved to the front, so that the statistics follow changes in the
+ * source.</p>
+ *
+ * <p>Instances may be shared between threads; each thread decodes with its own reader.</p>
+ */
+public class AdaptiveDecoder {
+
+    /**
+     * Default share of calls that try a random strategy first.
+     */
+    public static final double      DEFAULT_EXPLORATION_RATE = 0.05;
+
+    private static final Map<DecodeHintType, Object> TRY_HARDER_HINTS;
+    static {
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+        TRY_HARDER_HINTS = Collections.unmodifiableMap(hints);
+    }
+
+    private final List<DecodeStrategy> strategies;
+    private final double explorationRate;
+    private final ConcurrentMap<String, SourceStats> sources = new ConcurrentHashMap<>();
+    private final LongAdder timeouts = new LongAdder();
+
+    public AdaptiveDecoder() {
+        this(DecodeStrategy.DEFAULTS, DEFAULT_EXPLORATION_RATE);
+    }
+
+    /**
+     * @param strategies The strategies, in the order they are tried for a new source.
+     * @param explorationRate The share of calls, from 0 to 1, that try a random strategy first.
+     */
+    public AdaptiveDecoder(List<DecodeStrategy> strategies, double explorationRate) {
+        if (strategies.isEmpty())
+            throw new IllegalArgumentException("At least one strategy is needed.");
+        if (!(explorationRate >= 0 && explorationRate <= 1))
+            throw new IllegalArgumentException("Exploration rate must be between 0 and 1.");
+        this.strategies = Collections.unmodifiableList(new ArrayList<>(strategies));
+        this.explorationRate = explorationRate;
+    }
+
+    /**
+     * Decodes the QR code in the source, trying the strategies in the order learnt for its tag.
+     *
+     * @param source The image luminance.
+     * @param sourceTag The source the image comes from, or null for an untagged image.
+     * @param deadline The deadline, or null for none.
+     * @return The outcome; never null.
+     */
+    public DecodeResult decode(LuminanceSource source, String sourceTag, DecodeDeadline deadline) {
+        SourceStats stats = getSourceStats(sourceTag);
+        int[] order = stats.order();
+        if (order.length > 1 && explorationRate > 0 && ThreadLocalRandom.current().nextDouble() < explorationRate) {
+            int pick = 1 + ThreadLocalRandom.current().nextInt(order.length - 1);
+            int explored = order[pick];
+            System.arraycopy(order, 0, order, 1, pick);
+            order[0] = explored;
+        }
+
+        for (int index : order) {
+            if (deadline != null && deadline.isExpired())
+                return expired(deadline);
+            long start = System.nanoTime();
+            Result result = attempt(source, strategies.get(index), deadline);
+            // An attempt cut short by the deadline says nothing about the strategy, and its
+            // latency is truncated, so it is not recorded.
+            if (result == null && deadline != null && deadline.isExpired())
+                return expired(deadline);
+            stats.record(index, result != null, System.nanoTime() - start);
+            if (result != null)
+                return DecodeResult.decoded(result);
+        }
+        return DecodeResult.notFound();
+    }
+
+    /**
+     * Counts a call whose deadline expired and gets its result.
+     */
+    private DecodeResult expired(DecodeDeadline deadline) {
+        timeouts.increment();
+        return DecodeResult.expired(deadline);
+    }
+
+    /**
+     * Gets how many decodes were given up because their deadline expired or was cancelled since
+     * this decoder was created.
+     */
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Gets the strategies, in the order they are tried for a new source.
+     */
+    public List<DecodeStrategy> getStrategies() {
+        return strategies;
+    }
+
+    /**
+     * Gets the tags of every source seen so far.
+     */
+    public Set<String> getSourceTags() {
+        return new TreeSet<>(sources.keySet());
+    }
+
+    /**
+     * Gets a snapshot of the statistics for a source.
+     *
+     * @param sourceTag The source, or null for untagged images.
+     * @return The statistics of every strategy, in the order they are currently tried.
+     */
+    public List<StrategyStats> getStatistics(String sourceTag) {
+        SourceStats stats = getSourceStats(sourceTag);
+        List<StrategyStats> out = new ArrayList<>();
+        for (int index : stats.order())
+            out.add(stats.snapshot(index));
+        return out;
+    }
+
+    /**
+     * Writes the statistics of every source as CSV, with the columns source, strategy, attempts,
+     * successes and mean latency in microseconds.
+     */
+    public void exportStatistics(Appendable out) throws IOException {
+        out.append("source,strategy,attempts,successes,mean_latency_us\n");
+        for (String tag : getSourceTags()) {
+            for (StrategyStats s : getStatistics(tag)) {
+                out.append(tag).append(',').append(s.getStrategy().toString()).append(',')
+                        .append(String.valueOf(s.getAttempts())).append(',')
+                        .append(String.valueOf(s.getSuccesses())).append(',')
+                        .append(String.valueOf(s.getMeanLatencyNanos() / 1000)).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Forgets the statistics of every source.
+     */
+    public void reset() {
+        sources.clear();
+    }
+
+    private SourceStats getSourceStats(String sourceTag) {
+        String tag = sourceTag == null ? "" : sourceTag;
+        SourceStats stats = sources.get(tag);
+        if (stats == null) {
+            SourceStats created = new SourceStats(strategies);
+            stats = sources.putIfAbsent(tag, created);
+            if (stats == null)
+                stats = created;
+        }
+        return stats;
+    }
+
+    /**
+     * Makes a single attempt with one strategy, without recording it.
+     *
+     * @param deadline The deadline, or null for none.
+     * @return The result, or null if the strategy did not decode the source.
+     */
+    static Result attempt(LuminanceSource source, DecodeStrategy strategy, DecodeDeadline deadline) {
+        int factor = strategy.getDownscale();
+        LuminanceSource scaled = factor > 1 ? downscale(source, factor) : source;
+        if (scaled == null)
+            return null;
+        if (strategy.isInverted())
+            scaled = scaled.invert();
+
+        BinaryBitmap bitmap = new BinaryBitmap(strategy.getBinarizer() == DecodeStrategy.Binarizer.BLOCK
+                ? new BlockBinarizer(scaled) : new GlobalHistogramBinarizer(scaled));
+        try {
+            Result result = StagedReader.read(bitmap, strategy.isTryHarder() ? TRY_HARDER_HINTS : null, strategy, deadline);
+            if (result == null)
+                return null;
+            return factor > 1 ? scale(result, factor) : result;
+        } catch (ReaderException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Downscales the source by halving it repeatedly.
+     *
+     * @return The downscaled source, or null if it would be empty.
+     */
+    private static LuminanceSource downscale(LuminanceSource source, int factor) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (width < factor || height < factor)
+            return null;
+        byte[] luminance = source.getMatrix();
+        for (int f = factor; f > 1; f >>= 1) {
+            luminance = PageDecoder.halve(luminance, width, height);
+            width >>= 1;
+            height >>= 1;
+        }
+        return new RasterLuminanceSource(luminance, width, 0, width, height);
+    }
+
+    /**
+     * Moves the result points of a result decoded on a downscaled copy back to source pixels.
+     */
+    private static Result scale(Result result, int factor) {
+        ResultPoint[] points = result.getResultPoints();
+        if (points == null)
+            return result;
+        ResultPoint[] moved = new ResultPoint[points.length];
+        for (int i = 0; i < points.length; i++)
+            moved[i] = new ResultPoint(points[i].getX() * factor, points[i].getY() * factor);
+        Result out = new Result(result.getText(), result.getRawBytes(), result.getNumBits(), moved,
+                result.getBarcodeFormat(), result.getTimestamp());
+        out.putAllMetadata(result.getResultMetadata());
+        return out;
+    }
+
+    /**
+     * A snapshot of the statistics of one strategy for one source.
+     */
+    public static class StrategyStats {
+        private final DecodeStrategy strategy;
+        private final long attempts;
+        private final long successes;
+        private final long latencyNanos;
+
+        StrategyStats(DecodeStrategy strategy, long attempts, long successes, long latencyNanos) {
+            this.strategy = strategy;
+            this.attempts = attempts;
+            this.successes = successes;
+            this.latencyNanos = latencyNanos;
+        }
+
+        public DecodeStrategy getStrategy() {
+            return strategy;
+        }
+
+        public long getAttempts() {
+            return attempts;
+        }
+
+        public long getSuccesses() {
+            return successes;
+        }
+
+        /**
+         * Gets the share of attempts that succeeded, or 0 if there were none.
+         */
+        public double getSuccessRate() {
+            return attempts == 0 ? 0 : (double) successes / attempts;
+        }
+
+        /**
+         * Gets the mean duration of an attempt, successful or not, or 0 if there were none.
+         */
+        public long getMeanLatencyNanos() {
+            return attempts == 0 ? 0 : latencyNanos / attempts;
+        }
+
+        @Override
+        public String toString() {
+            return strategy + ": " + successes + "/" + attempts + ", " + getMeanLatencyNanos() / 1000 + " us";
+        }
+    }
+
+    /**
+     * The counters of every strategy for one source, as attempts, successes and total latency in
+     * consecutive slots.
+     */
+    private static class SourceStats {
+        private final List<DecodeStrategy> strategies;
+        private final AtomicLongArray counters;
+
+        SourceStats(List<DecodeStrategy> strategies) {
+            this.strategies = strategies;
+            this.counters = new AtomicLongArray(strategies.size() * 3);
+        }
+
+        void record(int index, boolean success, long nanos) {
+            counters.incrementAndGet(index * 3);
+            if (success)
+                counters.incrementAndGet(index * 3 + 1);
+            counters.addAndGet(index * 3 + 2, nanos);
+        }
+
+        StrategyStats snapshot(int index) {
+            return new StrategyStats(strategies.get(index), counters.get(index * 3),
+                    counters.get(index * 3 + 1), counters.get(index * 3 + 2));
+        }
+
+        /**
+         * Orders the strategies by expected cost: mean latency over the success rate, with the
+         * success rate smoothed so that a strategy is never ruled out by a few failures. Untried
+         * strategies keep their configured order, after the tried ones.
+         */
+        int[] order() {
+            int n = strategies.size();
+            final double[] costs = new double[n];
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                long attempts = counters.get(i * 3);
+                long successes = counters.get(i * 3 + 1);
+                long nanos = counters.get(i * 3 + 2);
+                order[i] = i;
+                if (attempts == 0) {
+                    costs[i] = Double.POSITIVE_INFINITY;
+                } else {
+                    double rate = (successes + 1.0) / (attempts + 2.0);
+                    costs[i] = ((double) nanos / attempts) / rate;
+                }
+            }
+            // The sort is stable, so ties keep the configured order.
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Double.compare(costs[a], costs[b]);
+                }
+            });
+            int[] out = new int[n];
+            for (int i = 0; i < n; i++)
+                out[i] = order[i];
+            return out;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.gfb.qrbill.zxing;
+
+import com.google.zxing.Binarizer;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.common.HybridBinarizer;
+
+/**
+ * A local block binarizer that produces exactly the same black matrix as {@link HybridBinarizer},
+ * but computes it a whole row at a time rather than one 8 x 8 block at a time.
+ *
+ * <p>Block statistics are gathered into per-column sums, minima and maxima over the eight rows of
+ * a block row, and each pixel row is thresholded against a per-column threshold array into
+ * packed 32-bit words. Both are plain counted loops over primitive arrays, without the per-pixel
+ * bit matrix calls of the block by block version. Like {@link HybridBinarizer}, images smaller
+ * than 40 pixels fall back to the global histogram.</p>
+ */
+public class BlockBinarizer extends GlobalHistogramBinarizer {
+
+    private static final int        BLOCK_SIZE_POWER    = 3;
+    private static final int        BLOCK_SIZE          = 1 << BLOCK_SIZE_POWER;
+    private static final int        MINIMUM_DIMENSION   = BLOCK_SIZE * 5;
+    private static final int        MIN_DYNAMIC_RANGE   = 24;
+
+    private BitMatrix matrix;
+
+    public BlockBinarizer(LuminanceSource source) {
+        super(source);
+    }
+
+    @Override
+    public BitMatrix getBlackMatrix() throws NotFoundException {
+        if (matrix != null)
+            return matrix;
+
+        LuminanceSource source = getLuminanceSource();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (width < MINIMUM_DIMENSION || height < MINIMUM_DIMENSION) {
+            matrix = super.getBlackMatrix();
+        } else {
+            byte[] luminances = source.getMatrix();
+            int[][] blockMinima = new int[(height + BLOCK_SIZE - 1) >> BLOCK_SIZE_POWER][(width + BLOCK_SIZE - 1) >> BLOCK_SIZE_POWER];
+            int[][] blackPoints = calculateBlackPoints(luminances, width, height, blockMinima);
+            matrix = threshold(luminances, width, height, calculateThresholds(blackPoints), blockMinima);
+        }
+        return matrix;
+    }
+
+    @Override
+    public Binarizer createBinarizer(LuminanceSource source) {
+        return new BlockBinarizer(source);
+    }
+
+    /**
+     * The black point of each block, as in {@link HybridBinarizer}: the block average, or for
+     * blocks with little contrast, half the block minimum raised to the neighbours' black point.
+     */
+    private static int[][] calculateBlackPoints(byte[] luminances, int width, int height, int[][] blockMinima) {
+        int subWidth = (width + BLOCK_SIZE - 1) >> BLOCK_SIZE_POWER;
+        int subHeight = (height + BLOCK_SIZE - 1) >> BLOCK_SIZE_POWER;
+        int maxXOffset = width - BLOCK_SIZE;
+        int maxYOffset = height - BLOCK_SIZE;
+        int[][] blackPoints = new int[subHeight][subWidth];
+        int[] sums = new int[width];
+        int[] mins = new int[width];
+        int[] maxs = new int[width];
+
+        for (int y = 0; y < subHeight; y++) {
+            // All eight rows are read in one pass, so each column is only stored once.
+            int o0 = Math.min(y << BLOCK_SIZE_POWER, maxYOffset) * width;
+            int o1 = o0 + width, o2 = o1 + width, o3 = o2 + width;
+            int o4 = o3 + width, o5 = o4 + width, o6 = o5 + width, o7 = o6 + width;
+            for (int x = 0; x < width; x++) {
+                int p0 = luminances[o0 + x] & 0xFF, p1 = luminances[o1 + x] & 0xFF;
+                int p2 = luminances[o2 + x] & 0xFF, p3 = luminances[o3 + x] & 0xFF;
+                int p4 = luminances[o4 + x] & 0xFF, p5 = luminances[o5 + x] & 0xFF;
+                int p6 = luminances[o6 + x] & 0xFF, p7 = luminances[o7 + x] & 0xFF;
+                sums[x] = p0 + p1 + p2 + p3 + p4 + p5 + p6 + p7;
+                mins[x] = Math.min(Math.min(Math.min(p0, p1), Math.min(p2, p3)), Math.min(Math.min(p4, p5), Math.min(p6, p7)));
+                maxs[x] = Math.max(Math.max(Math.max(p0, p1), Math.max(p2, p3)), Math.max(Math.max(p4, p5), Math.max(p6, p7)));
+            }
+
+            int[] blackRow = blackPoints[y];
+            for (int x = 0; x < subWidth; x++) {
+                int xoffset = Math.min(x << BLOCK_SIZE_POWER, maxXOffset);
+                int sum = 0;
+                int min = 0xFF;
+                int max = 0;
+                for (int i = xoffset; i < xoffset + BLOCK_SIZE; i++) {
+                    sum += sums[i];
+                    min = Math.min(min, mins[i]);
+                    max = Math.max(max, maxs[i]);
+                }
+
+                blockMinima[y][x] = min;
+                int average = sum >> (BLOCK_SIZE_POWER * 2);
+                if (max - min <= MIN_DYNAMIC_RANGE) {
+                    average = min / 2;
+                    if (y > 0 && x > 0) {
+                        int averageNeighborBlackPoint =
+                                (blackPoints[y - 1][x] + (2 * blackRow[x - 1]) + blackPoints[y - 1][x - 1]) / 4;
+                        if (min < averageNeighborBlackPoint)
+                            average = averageNeighborBlackPoint;
+                    }
+                }
+                blackRow[x] = average;
+            }
+        }
+        return blackPoints;
+    }
+
+    /**
+     * The threshold of each block: the average black point of the 5 x 5 blocks around it, moved
+     * inwards at the edges, as in {@link HybridBinarizer}.
+     */
+    private static int[][] calculateThresholds(int[][] blackPoints) {
+        int subHeight = blackPoints.length;
+        int subWidth = blackPoints[0].length;
+        int[][] thresholds = new int[subHeight][subWidth];
+        for (int y = 0; y < subHeight; y++) {
+            int top = cap(y, subHeight - 3);
+            for (int x = 0; x < subWidth; x++) {
+                int left = cap(x, subWidth - 3);
+                int sum = 0;
+                for (int z = -2; z <= 2; z++) {
+                    int[] blackRow = blackPoints[top + z];
+                    sum += blackRow[left - 2] + blackRow[left - 1] + blackRow[left] + blackRow[left + 1] + blackRow[left + 2];
+                }
+                thresholds[y][x] = sum / 25;
+            }
+        }
+        return thresholds;
+    }
+
+    /**
+     * Thresholds every pixel row against the thresholds of the blocks covering it. The last block
+     * of a row or column is moved back to end on the image edge and so overlaps its neighbour; a
+     * pixel is black if it is at or below the threshold of any block covering it, i.e. of the
+     * highest one. Words whose blocks are all brighter than every threshold in the word are left
+     * white without looking at their pixels, which skips most of a scanned page.
+     */
+    private static BitMatrix threshold(byte[] luminances, int width, int height, int[][] thresholds, int[][] blockMinima) {
+        int subHeight = thresholds.length;
+        int lastColumns = width - BLOCK_SIZE;
+        int lastRows = height - BLOCK_SIZE;
+        int words = (width + 31) >> 5;
+        BitMatrix matrix = new BitMatrix(width, height);
+        BitArray row = new BitArray(width);
+        int[] lastThresholds = columnThresholds(thresholds[subHeight - 1], width, lastColumns);
+        int[] wordMinima = new int[words];
+        int[] wordMaxima = new int[words];
+        int[] t = null;
+        int blockRow = -1;
+        boolean merged = false;
+
+        for (int y = 0; y < height; y++) {
+            if (y >> BLOCK_SIZE_POWER != blockRow) {
+                blockRow = y >> BLOCK_SIZE_POWER;
+                t = columnThresholds(thresholds[blockRow], width, lastColumns);
+                wordLimits(blockMinima[blockRow], t, width, wordMinima, wordMaxima);
+                merged = blockRow == subHeight - 1;
+            }
+            if (y >= lastRows && !merged) {
+                for (int x = 0; x < width; x++)
+                    t[x] = Math.max(t[x], lastThresholds[x]);
+                wordLimits(blockMinima[blockRow], t, width, wordMinima, wordMaxima);
+                merged = true;
+            }
+
+            int offset = y * width;
+            for (int w = 0; w < words; w++) {
+                int base = w << 5;
+                int word = 0;
+                if (wordMinima[w] <= wordMaxima[w]) {
+                    int end = Math.min(32, width - base);
+                    for (int b = 0; b < end; b++) {
+                        // Black when the luminance is at or below the threshold, i.e. the sign bit
+                        // of the difference is clear.
+                        int difference = t[base + b] - (luminances[offset + base + b] & 0xFF);
+                        word |= ((difference >>> 31) ^ 1) << b;
+                    }
+                }
+                row.setBulk(base, word);
+            }
+            matrix.setRow(y, row);
+        }
+        return matrix;
+    }
+
+    /**
+     * For each 32 pixel word of a block row, the darkest pixel of the blocks it spans and the
+     * highest threshold among its columns.
+     */
+    private static void wordLimits(int[] blockMinima, int[] t, int width, int[] wordMinima, int[] wordMaxima) {
+        for (int w = 0; w < wordMinima.length; w++) {
+            int base = w << 5;
+            int end = Math.min(base + 32, width);
+            int min = 0xFF;
+            for (int bx = base >> BLOCK_SIZE_POWER; bx <= (end - 1) >> BLOCK_SIZE_POWER; bx++)
+                min = Math.min(min, blockMinima[bx]);
+            int max = 0;
+            for (int x = base; x < end; x++)
+                max = Math.max(max, t[x]);
+            wordMinima[w] = min;
+            wordMaxima[w] = max;
+        }
+    }
+
+    private static int[] columnThresholds(int[] blockThresholds, int width, int lastColumns) {
+        int[] columns = new int[width];
+        int last = blockThresholds[blockThresholds.length - 1];
+        for (int x = 0; x < width; x++) {
+            int threshold = blockThresholds[x >> BLOCK_SIZE_POWER];
+            columns[x] = x >= lastColumns ? Math.max(threshold, last) : threshold;
+        }
+        return columns;
+    }
+
+    private static int cap(int value, int max) {
+        return value < 2 ? 2 : Math.min(value, max);
+    }
+}
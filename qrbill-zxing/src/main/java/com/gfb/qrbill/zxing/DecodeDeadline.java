@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.gfb.qrbill.zxing;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A time limit and cancellation token for a decode call. The decoders check it between
+ * binarization, detection and decode attempts, and give up with a
+ * {@link DecodeResult.Status#TIMED_OUT} or {@link DecodeResult.Status#CANCELLED} result once it has
+ * expired. A step that is already running is not interrupted, so a call may overrun its deadline by
+ * the duration of one step.
+ *
+ * <p>A deadline may be shared by several calls, and cancelled from any thread.</p>
+ */
+public class DecodeDeadline {
+
+    private final long deadline;
+    private final boolean timed;
+    private volatile boolean cancelled;
+
+    private DecodeDeadline(long deadline, boolean timed) {
+        this.deadline = deadline;
+        this.timed = timed;
+    }
+
+    /**
+     * Creates a deadline that expires after the given time from now.
+     */
+    public static DecodeDeadline after(long timeout, TimeUnit unit) {
+        return new DecodeDeadline(System.nanoTime() + unit.toNanos(timeout), true);
+    }
+
+    /**
+     * Creates a deadline without a time limit, which only expires when cancelled.
+     */
+    public static DecodeDeadline cancellable() {
+        return new DecodeDeadline(0, false);
+    }
+
+    /**
+     * Cancels every call using this deadline, at their next check.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Checks whether the deadline was cancelled or its time has passed.
+     */
+    public boolean isExpired() {
+        return cancelled || (timed && System.nanoTime() - deadline >= 0);
+    }
+
+    /**
+     * Gets the time left before the deadline.
+     *
+     * @return The remaining time in nanoseconds; 0 once expired, and Long.MAX_VALUE for a deadline
+     * without a time limit that was not cancelled.
+     */
+    public long getRemainingNanos() {
+        if (cancelled)
+            return 0;
+        if (!timed)
+            return Long.MAX_VALUE;
+        return Math.max(0, deadline - System.nanoTime());
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.gfb.qrbill.zxing;
+
+import com.gfb.qrbill.spi.PipelineEvents;
+import com.google.zxing.Result;
+
+/**
+ * The outcome of a decode call made with a {@link DecodeDeadline}, telling a symbol that could not
+ * be found apart from a call that ran out of time or an image that failed the
+ * {@link ImageQuality} pre-screen.
+ */
+public class DecodeResult {
+
+    /**
+     * How the decode call ended.
+     */
+    public enum Status { DECODED, NOT_FOUND, TIMED_OUT, CANCELLED, REJECTED }
+
+    private static final DecodeResult NOT_FOUND = new DecodeResult(Status.NOT_FOUND, null);
+    private static final DecodeResult TIMED_OUT = new DecodeResult(Status.TIMED_OUT, null);
+    private static final DecodeResult CANCELLED = new DecodeResult(Status.CANCELLED, null);
+
+    private final Status status;
+    private final Result result;
+    private final ImageQuality quality;
+
+    private DecodeResult(Status status, Result result) {
+        this(status, result, null);
+    }
+
+    private DecodeResult(Status status, Result result, ImageQuality quality) {
+        this.status = status;
+        this.result = result;
+        this.quality = quality;
+    }
+
+    static DecodeResult decoded(Result result) {
+        return new DecodeResult(Status.DECODED, result);
+    }
+
+    static DecodeResult notFound() {
+        return NOT_FOUND;
+    }
+
+    static DecodeResult rejected(ImageQuality quality) {
+        return new DecodeResult(Status.REJECTED, null, quality);
+    }
+
+    /**
+     * The result for a call whose deadline expired, telling cancellation and time out apart. Every
+     * decoder gives up through here, so this also reports the expiry to {@link PipelineEvents}, as
+     * a {@link PipelineEvents.Stage#DEADLINE} marker rather than as a decode stage, whose timings
+     * it would skew.
+     */
+    static DecodeResult expired(DecodeDeadline deadline) {
+        DecodeResult result = deadline.isCancelled() ? CANCELLED : TIMED_OUT;
+        Object event = PipelineEvents.begin();
+        if (event != null)
+            PipelineEvents.end(event, PipelineEvents.Stage.DEADLINE, 0, 0, 0, null, result == CANCELLED ? "cancelled" : "timed out");
+        return result;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Checks whether a QR code was decoded.
+     */
+    public boolean isDecoded() {
+        return status == Status.DECODED;
+    }
+
+    /**
+     * Gets the decoded result.
+     *
+     * @return The result, or null unless the status is {@link Status#DECODED}.
+     */
+    public Result getResult() {
+        return result;
+    }
+
+    /**
+     * Gets the decoded text.
+     *
+     * @return The text, or null unless the status is {@link Status#DECODED}.
+     */
+    public String getText() {
+        return result == null ? null : result.getText();
+    }
+
+    /**
+     * Gets the quality estimate an image was rejected for.
+     *
+     * @return The estimate, or null unless the status is {@link Status#REJECTED}.
+     */
+    public ImageQuality getQuality() {
+        return quality;
+    }
+
+    /**
+     * Returns the same outcome with the result points of a crop moved back to page coordinates.
+     */
+    DecodeResult offset(int left, int top) {
+        return result == null ? this : decoded(PageDecoder.offset(result, left, top));
+    }
+}
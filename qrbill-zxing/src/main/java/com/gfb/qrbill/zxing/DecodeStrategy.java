@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.gfb.qrbill.zxing;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.Result;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One way of decoding an image: the binarizer, the factor the image is downscaled by first, and
+ * whether TRY_HARDER is set and the image inverted. Used by {@link AdaptiveDecoder}.
+ */
+public class DecodeStrategy {
+
+    /**
+     * The binarizers a strategy can use.
+     */
+    public enum Binarizer { GLOBAL_HISTOGRAM, BLOCK }
+
+    /**
+     * The default strategies, roughly cheapest first: the two {@link QRDecoder} tiers, each also
+     * on a copy downscaled by 2, and the thorough tier on an inverted image.
+     */
+    public static final List<DecodeStrategy> DEFAULTS = Collections.unmodifiableList(Arrays.asList(
+            new DecodeStrategy(Binarizer.GLOBAL_HISTOGRAM, 2, false, false),
+            new DecodeStrategy(Binarizer.GLOBAL_HISTOGRAM, 1, false, false),
+            new DecodeStrategy(Binarizer.BLOCK, 2, true, false),
+            new DecodeStrategy(Binarizer.BLOCK, 1, true, false),
+            new DecodeStrategy(Binarizer.BLOCK, 1, true, true)));
+
+    private final Binarizer binarizer;
+    private final int downscale;
+    private final boolean tryHarder;
+    private final boolean inverted;
+
+    /**
+     * @param binarizer The binarizer.
+     * @param downscale The factor the image is downscaled by before binarizing; 1, 2, 4 or 8.
+     * @param tryHarder Whether TRY_HARDER is set.
+     * @param inverted Whether the image is inverted, for light codes on a dark background.
+     */
+    public DecodeStrategy(Binarizer binarizer, int downscale, boolean tryHarder, boolean inverted) {
+        if (downscale != 1 && downscale != 2 && downscale != 4 && downscale != 8)
+            throw new IllegalArgumentException("Downscale factor must be 1, 2, 4 or 8.");
+        this.binarizer = binarizer;
+        this.downscale = downscale;
+        this.tryHarder = tryHarder;
+        this.inverted = inverted;
+    }
+
+    public Binarizer getBinarizer() {
+        return binarizer;
+    }
+
+    public int getDownscale() {
+        return downscale;
+    }
+
+    public boolean isTryHarder() {
+        return tryHarder;
+    }
+
+    public boolean isInverted() {
+        return inverted;
+    }
+
+    /**
+     * Makes a single decode attempt with this strategy alone, as {@link AdaptiveDecoder} does for
+     * each strategy it tries, but without learning from it.
+     *
+     * @param source The image luminance.
+     * @param deadline The deadline, or null for none.
+     * @return The result, or null if the strategy did not decode the source.
+     */
+    public Result decode(LuminanceSource source, DecodeDeadline deadline) {
+        return AdaptiveDecoder.attempt(source, this, deadline);
+    }
+
+    /**
+     * Gets a short name, such as "block/2x/try-harder", that identifies the strategy in exported
+     * statistics.
+     */
+    @Override
+    public String toString() {
+        List<String> parts = new ArrayList<String>();
+        parts.add(binarizer == Binarizer.BLOCK ? "block" : "global");
+        if (downscale > 1)
+            parts.add(downscale + "x");
+        if (tryHarder)
+            parts.add("try-harder");
+        if (inverted)
+            parts.add("inverted");
+        StringBuilder sb = new StringBuilder();
+        for (String part : parts) {
+            if (sb.length() > 0)
+                sb.append('/');
+            sb.append(part);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DecodeStrategy))
+            return false;
+        DecodeStrategy other = (DecodeStrategy) o;
+        return binarizer == other.binarizer && downscale == other.downscale
+                && tryHarder == other.tryHarder && inverted == other.inverted;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((binarizer.ordinal() * 16 + downscale) * 2 + (tryHarder ? 1 : 0)) * 2 + (inverted ? 1 : 0);
+    }
+}
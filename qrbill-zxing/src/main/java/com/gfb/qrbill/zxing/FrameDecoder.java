@@ -0,0 +1,225 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.gfb.qrbill.zxing;
+
+import com.gfb.qrbill.QRBill;
+import com.gfb.qrbill.QRBillLogger;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decodes QR bills from a live camera feed. Frames are passed as the YUV byte arrays the camera
+ * delivers (NV21, YV12 or any other format that starts with the full luminance plane), and only
+ * the luminance of the crop region is read, without any colour conversion. The frame itself is
+ * wrapped rather than copied, but with a crop region set, the rows of the region are copied once
+ * when the binarizer reads them.
+ *
+ * <p>Frames without enough contrast or finder pattern features are rejected by the
+ * {@link ImageQuality} pre-screen in a fraction of the decode time. Frames are skipped rather than
+ * queued: a frame that arrives while another is being decoded is dropped, and after each decode
+ * the following frames are dropped for long enough to keep the decoder below its maximum load, so
+ * that the camera thread is never held up. A bill that stays in
+ * front of the camera is reported once; its payload is then ignored until enough other bills have
+ * pushed it out of the ring of recent payloads.</p>
+ *
+ * <p>Frames may be submitted from any thread.</p>
+ */
+public class FrameDecoder {
+
+    /**
+     * Default number of recent payloads that are suppressed.
+     */
+    public static final int         DEFAULT_HISTORY     = 8;
+    /**
+     * Default share of the time the decoder may be busy.
+     */
+    public static final double      DEFAULT_MAX_LOAD    = 0.5;
+
+    private final QRDecoder decoder = new QRDecoder();
+    private final AtomicBoolean busy = new AtomicBoolean(false);
+    private final String[] recent;
+    private final double maxLoad;
+    private int next;
+    private volatile long skipUntil;
+    private volatile int[] crop;
+
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    public FrameDecoder() {
+        this(DEFAULT_HISTORY, DEFAULT_MAX_LOAD);
+    }
+
+    /**
+     * @param history The number of recent payloads that are suppressed. At least one.
+     * @param maxLoad The share of the time, above 0 and at most 1, that the decoder may be busy.
+     *                At 1, frames are only skipped while a decode is in progress.
+     */
+    public FrameDecoder(int history, double maxLoad) {
+        if (history < 1)
+            throw new IllegalArgumentException("History must hold at least one payload.");
+        if (!(maxLoad > 0 && maxLoad <= 1))
+            throw new IllegalArgumentException("Maximum load must be above 0 and at most 1.");
+        this.recent = new String[history];
+        this.maxLoad = maxLoad;
+        this.skipUntil = System.nanoTime();
+        decoder.setPreScreen(true);
+    }
+
+    /**
+     * Restricts decoding to a region of the frame, such as the viewfinder rectangle. The region is
+     * clipped to each frame.
+     *
+     * @param left The left edge of the region, in frame pixels.
+     * @param top The top edge of the region, in frame pixels.
+     * @param width The width of the region.
+     * @param height The height of the region.
+     */
+    public void setCropRegion(int left, int top, int width, int height) {
+        if (left < 0 || top < 0 || width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Crop region must be positive.");
+        crop = new int[] { left, top, width, height };
+    }
+
+    /**
+     * Decodes the whole frame again.
+     */
+    public void clearCropRegion() {
+        crop = null;
+    }
+
+    /**
+     * Decodes a camera frame.
+     *
+     * @param yuv The frame data, starting with the luminance plane, one byte per pixel.
+     * @param dataWidth The width of the frame.
+     * @param dataHeight The height of the frame.
+     * @return The bill, with result points relative to the whole frame, or null if the frame was
+     * skipped, held no valid QR bill, or held a bill that was reported recently.
+     */
+    public ScannedQRBill decodeFrame(byte[] yuv, int dataWidth, int dataHeight) {
+        if (yuv.length < dataWidth * dataHeight)
+            throw new IllegalArgumentException("Frame data is smaller than its luminance plane.");
+        frames.incrementAndGet();
+
+        long start = System.nanoTime();
+        if (start - skipUntil < 0 || !busy.compareAndSet(false, true)) {
+            skipped.incrementAndGet();
+            return null;
+        }
+        try {
+            int[] region = clip(crop, dataWidth, dataHeight);
+            LuminanceSource source = new PlanarYUVLuminanceSource(yuv, dataWidth, dataHeight,
+                    region[0], region[1], region[2], region[3], false);
+            Result result;
+            try {
+                result = decoder.decode(source);
+            } catch (NotFoundException e) {
+                // Not found or rejected by the pre-screen.
+                return null;
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                skipUntil = start + (long) (elapsed / maxLoad);
+            }
+
+            String text = result.getText();
+            if (!ZXing.isSwissPaymentsCode(text))
+                return null;
+            if (isRecent(text)) {
+                duplicates.incrementAndGet();
+                return null;
+            }
+            remember(text);
+
+            QRBill bill = new QRBill(text);
+            if (!bill.isValid()) {
+                QRBillLogger.get().warn("Error 7: Invalid QR bill skipped.");
+                return null;
+            }
+            result = PageDecoder.offset(result, region[0], region[1]);
+            return new ScannedQRBill(bill, text, result.getResultPoints());
+        } finally {
+            busy.set(false);
+        }
+    }
+
+    /**
+     * Forgets the recent payloads, so that a bill still in front of the camera is reported again.
+     */
+    public void reset() {
+        while (!busy.compareAndSet(false, true))
+            Thread.yield();
+        try {
+            for (int i = 0; i < recent.length; i++)
+                recent[i] = null;
+            skipUntil = System.nanoTime();
+        } finally {
+            busy.set(false);
+        }
+    }
+
+    /**
+     * Gets how many frames were submitted.
+     */
+    public long getFrameCount() {
+        return frames.get();
+    }
+
+    /**
+     * Gets how many frames were skipped without decoding.
+     */
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    /**
+     * Gets how many frames held a recently reported payload.
+     */
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    private boolean isRecent(String text) {
+        for (String r : recent) {
+            if (text.equals(r))
+                return true;
+        }
+        return false;
+    }
+
+    private void remember(String text) {
+        recent[next] = text;
+        next = (next + 1) % recent.length;
+    }
+
+    private static int[] clip(int[] crop, int width, int height) {
+        if (crop == null)
+            return new int[] { 0, 0, width, height };
+        int left = Math.min(crop[0], width - 1);
+        int top = Math.min(crop[1], height - 1);
+        return new int[] { left, top, Math.min(crop[2], width - left), Math.min(crop[3], height - top) };
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.gfb.qrbill.zxing;
+
+import com.gfb.qrbill.spi.PipelineEvents;
+import com.google.zxing.LuminanceSource;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Loads images for decoding straight into a {@link RasterLuminanceSource}. The image is read
+ * with an {@link ImageReader} into a grayscale or BGR raster, whichever the reader offers, and
+ * is subsampled while it is being decoded whenever reading it at full resolution would exceed
+ * the memory budget.
+ */
+public class ImageLoader {
+
+    /**
+     * Default memory budget per image, in bytes; enough for an A4 colour scan at 300 dpi.
+     */
+    public static final long        DEFAULT_BUDGET      = 48L * 1024 * 1024;
+
+    public static LuminanceSource load(File file) throws IOException {
+        return load(file, DEFAULT_BUDGET);
+    }
+
+    /**
+     * Loads the image as luminance.
+     *
+     * @param file The image file, in any format ImageIO can read.
+     * @param budget The most memory, in bytes, that the decoded raster and its luminance may take.
+     * @return The luminance of the image, possibly subsampled.
+     * @throws IOException Thrown when the file cannot be read or is not a supported image.
+     */
+    public static LuminanceSource load(File file, long budget) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(file);
+        if (input == null)
+            throw new IOException("Cannot open image file " + file);
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext())
+                throw new IOException("Unsupported image format: " + file);
+            ImageReader reader = readers.next();
+            Object event = PipelineEvents.begin();
+            LuminanceSource source = null;
+            try {
+                reader.setInput(input, true, true);
+                source = RasterLuminanceSource.create(read(reader, budget));
+                return source;
+            } finally {
+                reader.dispose();
+                if (event != null)
+                    PipelineEvents.end(event, PipelineEvents.Stage.LOAD, file.length(), source == null ? 0 : source.getWidth(),
+                            source == null ? 0 : source.getHeight(), reader.getFormatName(), source == null ? "failed" : "loaded");
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    private static BufferedImage read(ImageReader reader, long budget) throws IOException {
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        ImageReadParam param = reader.getDefaultReadParam();
+
+        // Without a byte raster, the pixels are boxed into ARGB integers before conversion.
+        ImageTypeSpecifier destination = null;
+        int bytesPerPixel = 5;
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        while (types.hasNext()) {
+            ImageTypeSpecifier type = types.next();
+            if (type.getBufferedImageType() == BufferedImage.TYPE_BYTE_GRAY) {
+                destination = type;
+                bytesPerPixel = 1;
+                break;
+            } else if (type.getBufferedImageType() == BufferedImage.TYPE_3BYTE_BGR && destination == null) {
+                destination = type;
+                bytesPerPixel = 4;
+            }
+        }
+        if (destination != null)
+            param.setDestinationType(destination);
+
+        int subsampling = 1;
+        while ((long) ceilDiv(width, subsampling) * ceilDiv(height, subsampling) * bytesPerPixel > budget)
+            subsampling++;
+        if (subsampling > 1)
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return reader.read(0, param);
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
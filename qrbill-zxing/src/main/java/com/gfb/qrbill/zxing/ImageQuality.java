@@ -0,0 +1,219 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.gfb.qrbill.zxing;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * A cheap estimate of whether an image can hold a readable QR code, taken before the decoders
+ * spend any time on it. It looks at three things:
+ *
+ * <ul>
+ *     <li>Contrast: the spread between the darkest and brightest few percent of a downsampled copy
+ *     of the image. Blank pages and backs of sheets have almost none.</li>
+ *     <li>Sharpness: the variance of the Laplacian of the downsampled copy. Heavily blurred photos
+ *     have a low variance.</li>
+ *     <li>Finder patterns: the number of dark-light-dark-light-dark runs in the 1:1:3:1:1 ratio of
+ *     a QR finder pattern, on evenly spaced rows of the full resolution image.</li>
+ * </ul>
+ *
+ * <p>An image is hopeless when it has too little contrast or sharpness, or fewer than three finder
+ * pattern candidates. The check reads at most about 500 rows of the image and takes a few
+ * milliseconds even for a full page scan.</p>
+ */
+public class ImageQuality {
+
+    // The longest side of the downsampled copy, and the number of rows searched for finder patterns.
+    private static final int        SAMPLE_SIZE         = 256;
+    private static final int        FINDER_ROWS         = 256;
+
+    private static final int        MIN_CONTRAST        = 32;
+    private static final double     MIN_SHARPNESS       = 4.0;
+    // A real finder pattern is crossed by more than one searched row, and a symbol has three.
+    private static final int        MIN_FINDER_CANDIDATES = 3;
+    // Share of pixels ignored at each end of the histogram when measuring contrast.
+    private static final double     CONTRAST_TAIL       = 0.02;
+
+    private final int contrast;
+    private final double sharpness;
+    private final int finderCandidates;
+
+    ImageQuality(int contrast, double sharpness, int finderCandidates) {
+        this.contrast = contrast;
+        this.sharpness = sharpness;
+        this.finderCandidates = finderCandidates;
+    }
+
+    /**
+     * Estimates the quality of an image.
+     *
+     * @param source The image luminance.
+     * @return The estimate.
+     */
+    public static ImageQuality assess(LuminanceSource source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int step = Math.max(1, (Math.max(width, height) + SAMPLE_SIZE - 1) / SAMPLE_SIZE);
+        int w = Math.max(1, width / step);
+        int h = Math.max(1, height / step);
+
+        // Average step pixels across on one row out of every step, so that only a fraction of a
+        // large image is read.
+        int[] sample = new int[w * h];
+        int[] histogram = new int[256];
+        byte[] row = new byte[width];
+        for (int y = 0; y < h; y++) {
+            row = source.getRow(y * step + (step >> 1), row);
+            for (int x = 0; x < w; x++) {
+                int sum = 0;
+                for (int i = x * step, end = i + step; i < end; i++)
+                    sum += row[i] & 0xFF;
+                int value = sum / step;
+                sample[y * w + x] = value;
+                histogram[value]++;
+            }
+        }
+
+        int tail = (int) (w * h * CONTRAST_TAIL);
+        int dark = percentile(histogram, tail);
+        int light = 255 - percentile(reverse(histogram), tail);
+        int contrast = light - dark;
+
+        int finders = contrast < MIN_CONTRAST ? 0 : countFinderCandidates(source, (dark + light) >> 1, row);
+        return new ImageQuality(contrast, laplacianVariance(sample, w, h), finders);
+    }
+
+    /**
+     * Gets the spread between the dark and light ends of the histogram, from 0 to 255.
+     */
+    public int getContrast() {
+        return contrast;
+    }
+
+    /**
+     * Gets the variance of the Laplacian of the downsampled image; higher is sharper.
+     */
+    public double getSharpness() {
+        return sharpness;
+    }
+
+    /**
+     * Gets the number of row runs that look like a cross-section of a finder pattern.
+     */
+    public int getFinderCandidates() {
+        return finderCandidates;
+    }
+
+    /**
+     * Checks whether the image is worth decoding at all.
+     */
+    public boolean isHopeless() {
+        return contrast < MIN_CONTRAST || sharpness < MIN_SHARPNESS || finderCandidates < MIN_FINDER_CANDIDATES;
+    }
+
+    @Override
+    public String toString() {
+        return "contrast " + contrast + ", sharpness " + Math.round(sharpness * 10) / 10.0
+                + ", finder candidates " + finderCandidates;
+    }
+
+    private static int percentile(int[] histogram, int count) {
+        int seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen > count)
+                return i;
+        }
+        return histogram.length - 1;
+    }
+
+    private static int[] reverse(int[] histogram) {
+        int[] reversed = new int[histogram.length];
+        for (int i = 0; i < histogram.length; i++)
+            reversed[histogram.length - 1 - i] = histogram[i];
+        return reversed;
+    }
+
+    private static double laplacianVariance(int[] sample, int w, int h) {
+        if (w < 3 || h < 3)
+            return 0;
+        long sum = 0;
+        long squares = 0;
+        for (int y = 1; y < h - 1; y++) {
+            for (int x = 1, i = y * w + 1; x < w - 1; x++, i++) {
+                int laplacian = sample[i - w] + sample[i + w] + sample[i - 1] + sample[i + 1] - 4 * sample[i];
+                sum += laplacian;
+                squares += (long) laplacian * laplacian;
+            }
+        }
+        double n = (double) (w - 2) * (h - 2);
+        double mean = sum / n;
+        return squares / n - mean * mean;
+    }
+
+    /**
+     * Counts the runs in the 1:1:3:1:1 ratio of a finder pattern on evenly spaced rows, with the
+     * same tolerance as the ZXing finder pattern search.
+     */
+    private static int countFinderCandidates(LuminanceSource source, int threshold, byte[] row) {
+        int height = source.getHeight();
+        int rows = Math.min(FINDER_ROWS, height);
+        int[] runs = new int[5];
+        int found = 0;
+        for (int r = 0; r < rows; r++) {
+            row = source.getRow((int) ((r + 0.5) * height / rows), row);
+            // runs[0..4] hold the last five runs, the newest last; colours alternate.
+            int count = 0;
+            boolean black = false;
+            int filled = 0;
+            for (int x = 0; x < source.getWidth(); x++) {
+                boolean pixel = (row[x] & 0xFF) < threshold;
+                if (pixel == black) {
+                    count++;
+                    continue;
+                }
+                if (black && filled >= 4 && isFinderRatio(runs, count))
+                    found++;
+                System.arraycopy(runs, 1, runs, 0, 4);
+                runs[4] = count;
+                filled++;
+                black = pixel;
+                count = 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Checks whether the last four runs (black, white, black, white) and the closing black run
+     * have the 1:1:3:1:1 ratio.
+     */
+    private static boolean isFinderRatio(int[] runs, int last) {
+        int a = runs[1], b = runs[2], c = runs[3], d = runs[4];
+        int total = a + b + c + d + last;
+        if (total < 7)
+            return false;
+        float module = total / 7.0F;
+        float variance = module / 2.0F;
+        return Math.abs(module - a) < variance && Math.abs(module - b) < variance
+                && Math.abs(3.0F * module - c) < 3 * variance
+                && Math.abs(module - d) < variance && Math.abs(module - last) < variance;
+    }
+}
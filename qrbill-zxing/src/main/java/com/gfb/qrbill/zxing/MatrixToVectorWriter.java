@@ -0,0 +1,242 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.gfb.qrbill.zxing;
+
+import com.google.zxing.common.BitMatrix;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Writes a module-exact {@link BitMatrix} (one bit per QR module, see
+ * {@link ZXing#encodeQRCode(String)}) as vector graphics, either as SVG or as a single page PDF.
+ *
+ * <p>Horizontal runs of dark modules are merged into rectangles, and identical runs on
+ * consecutive rows are merged again vertically, so a typical QR bill needs only a few hundred
+ * rectangles. All coordinates are emitted in module units and scaled by the document itself, so
+ * the output size does not depend on the print resolution.</p>
+ */
+public class MatrixToVectorWriter {
+
+    // Swiss cross proportions, relative to the 46 mm symbol and the 7 mm cross respectively.
+    private static final double     CROSS_RATIO     = 7.0 / 46.0;
+    private static final double     CROSS_BORDER    = 0.5 / 7.0;
+    private static final double     ARM_LENGTH      = 20.0 / 32.0;
+    private static final double     ARM_WIDTH       = 6.0 / 32.0;
+
+    private static final double     MM_TO_PT        = 72.0 / 25.4;
+    private static final Charset    PDF_CHARSET     = Charset.forName("ISO-8859-1");
+
+    /**
+     * Writes the matrix as an SVG document.
+     *
+     * @param matrix The module-exact QR matrix.
+     * @param sizeMm The printed width and height of the symbol in millimetres (46 for a QR bill).
+     * @param swissCross Whether the Swiss cross is drawn over the centre of the symbol.
+     * @param out The destination. It is not closed.
+     */
+    public static void writeSVG(BitMatrix matrix, double sizeMm, boolean swissCross, Writer out) throws IOException {
+        int modules = matrix.getWidth();
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<svg xmlns=\"http://www.w3.org/2000/svg\" version=\"1.1\" width=\"")
+                .append(format(sizeMm)).append("mm\" height=\"").append(format(sizeMm))
+                .append("mm\" viewBox=\"0 0 ").append(modules).append(' ').append(matrix.getHeight())
+                .append("\" shape-rendering=\"crispEdges\">\n")
+                .append("<rect width=\"100%\" height=\"100%\" fill=\"#fff\"/>\n")
+                .append("<path fill=\"#000\" d=\"");
+        for (int[] r : mergeModules(matrix))
+            sb.append('M').append(r[0]).append(' ').append(r[1])
+                    .append('h').append(r[2]).append('v').append(r[3])
+                    .append('h').append(-r[2]).append('z');
+        sb.append("\"/>\n");
+
+        if (swissCross) {
+            for (double[] r : crossRectangles(modules, matrix.getHeight()))
+                sb.append("<rect x=\"").append(format(r[0])).append("\" y=\"").append(format(r[1]))
+                        .append("\" width=\"").append(format(r[2])).append("\" height=\"").append(format(r[3]))
+                        .append("\" fill=\"").append(r[4] == 0 ? "#fff" : "#000").append("\"/>\n");
+        }
+        sb.append("</svg>\n");
+        out.write(sb.toString());
+    }
+
+    /**
+     * Writes the matrix as a minimal, single page PDF document whose media box is the symbol.
+     *
+     * @param matrix The module-exact QR matrix.
+     * @param sizeMm The printed width and height of the symbol in millimetres (46 for a QR bill).
+     * @param swissCross Whether the Swiss cross is drawn over the centre of the symbol.
+     * @param out The destination. It is not closed.
+     */
+    public static void writePDF(BitMatrix matrix, double sizeMm, boolean swissCross, OutputStream out) throws IOException {
+        String content = toPDFContentStream(matrix, sizeMm, swissCross);
+        String size = format(sizeMm * MM_TO_PT);
+
+        String[] objects = new String[] {
+                "<< /Type /Catalog /Pages 2 0 R >>",
+                "<< /Type /Pages /Kids [3 0 R] /Count 1 >>",
+                "<< /Type /Page /Parent 2 0 R /MediaBox [0 0 " + size + " " + size + "] /Contents 4 0 R /Resources << >> >>",
+                "<< /Length " + content.length() + " >>\nstream\n" + content + "endstream"
+        };
+
+        StringBuilder pdf = new StringBuilder(content.length() + 512);
+        pdf.append("%PDF-1.4\n");
+        int[] offsets = new int[objects.length];
+        for (int i = 0; i < objects.length; i++) {
+            offsets[i] = pdf.length();
+            pdf.append(i + 1).append(" 0 obj\n").append(objects[i]).append("\nendobj\n");
+        }
+        int xref = pdf.length();
+        pdf.append("xref\n0 ").append(objects.length + 1).append("\n0000000000 65535 f \n");
+        for (int offset : offsets) {
+            String o = String.valueOf(offset);
+            pdf.append("0000000000".substring(o.length())).append(o).append(" 00000 n \n");
+        }
+        pdf.append("trailer\n<< /Size ").append(objects.length + 1).append(" /Root 1 0 R >>\nstartxref\n")
+                .append(xref).append("\n%%EOF\n");
+        out.write(pdf.toString().getBytes(PDF_CHARSET));
+    }
+
+    /**
+     * Builds the PDF content stream operators that draw the matrix, for embedding in an existing
+     * page. The stream draws into a square of the given size, with its origin at the bottom left.
+     *
+     * @param matrix The module-exact QR matrix.
+     * @param sizeMm The printed width and height of the symbol in millimetres.
+     * @param swissCross Whether the Swiss cross is drawn over the centre of the symbol.
+     * @return The content stream, using only ASCII characters.
+     */
+    public static String toPDFContentStream(BitMatrix matrix, double sizeMm, boolean swissCross) {
+        int width = matrix.getWidth();
+        int height = matrix.getHeight();
+        double scale = sizeMm * MM_TO_PT / width;
+
+        // Flip the y axis so that the module coordinates can be used as they are.
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("q\n").append(format(scale)).append(" 0 0 ").append(format(-scale)).append(" 0 ")
+                .append(format(height * scale)).append(" cm\n0 g\n");
+        for (int[] r : mergeModules(matrix))
+            sb.append(r[0]).append(' ').append(r[1]).append(' ').append(r[2]).append(' ').append(r[3]).append(" re\n");
+        sb.append("f\n");
+
+        if (swissCross) {
+            for (double[] r : crossRectangles(width, height))
+                sb.append(r[4] == 0 ? "1 g\n" : "0 g\n")
+                        .append(format(r[0])).append(' ').append(format(r[1])).append(' ')
+                        .append(format(r[2])).append(' ').append(format(r[3])).append(" re f\n");
+        }
+        sb.append("Q\n");
+        return sb.toString();
+    }
+
+    /**
+     * Merges the dark modules of the matrix into rectangles. Each row is split into runs of dark
+     * modules and a run that spans exactly the same columns as a run on the row above extends that
+     * rectangle downwards rather than starting a new one.
+     *
+     * @return The rectangles as {x, y, width, height}, in module units.
+     */
+    static ArrayList<int[]> mergeModules(BitMatrix matrix) {
+        int width = matrix.getWidth();
+        int height = matrix.getHeight();
+        ArrayList<int[]> closed = new ArrayList<int[]>();
+        ArrayList<int[]> open = new ArrayList<int[]>();
+        ArrayList<int[]> next = new ArrayList<int[]>();
+
+        for (int y = 0; y < height; y++) {
+            int o = 0;
+            int x = 0;
+            while (x < width) {
+                if (!matrix.get(x, y)) {
+                    x++;
+                    continue;
+                }
+                int start = x;
+                while (x < width && matrix.get(x, y))
+                    x++;
+
+                // Both lists are ordered by x, so the open rectangles can be walked in step.
+                while (o < open.size() && open.get(o)[0] < start)
+                    closed.add(open.get(o++));
+                if (o < open.size() && open.get(o)[0] == start && open.get(o)[2] == x - start) {
+                    int[] r = open.get(o++);
+                    r[3]++;
+                    next.add(r);
+                } else {
+                    next.add(new int[] { start, y, x - start, 1 });
+                }
+            }
+            while (o < open.size())
+                closed.add(open.get(o++));
+
+            ArrayList<int[]> swap = open;
+            open = next;
+            next = swap;
+            next.clear();
+        }
+        closed.addAll(open);
+        return closed;
+    }
+
+    /**
+     * The Swiss cross as rectangles in module units: a white square, the black square inside it
+     * and the two white arms of the cross.
+     *
+     * @return The rectangles as {x, y, width, height, colour}, where colour 0 is white and 1 black.
+     */
+    static double[][] crossRectangles(int width, int height) {
+        double side = Math.min(width, height) * CROSS_RATIO;
+        double x = (width - side) / 2;
+        double y = (height - side) / 2;
+        double border = side * CROSS_BORDER;
+        double inner = side - 2 * border;
+        double armLength = inner * ARM_LENGTH;
+        double armWidth = inner * ARM_WIDTH;
+        double cx = x + side / 2;
+        double cy = y + side / 2;
+
+        return new double[][] {
+                { x, y, side, side, 0 },
+                { x + border, y + border, inner, inner, 1 },
+                { cx - armLength / 2, cy - armWidth / 2, armLength, armWidth, 0 },
+                { cx - armWidth / 2, cy - armLength / 2, armWidth, armLength, 0 }
+        };
+    }
+
+    /**
+     * Formats a number with at most four decimals, independently of the default locale.
+     */
+    private static String format(double value) {
+        long tenThousandths = Math.round(value * 10000);
+        String sign = tenThousandths < 0 ? "-" : "";
+        tenThousandths = Math.abs(tenThousandths);
+        long decimals = tenThousandths % 10000;
+        if (decimals == 0)
+            return sign + (tenThousandths / 10000);
+        String fraction = String.valueOf(10000 + decimals).substring(1);
+        while (fraction.endsWith("0"))
+            fraction = fraction.substring(0, fraction.length() - 1);
+        return sign + (tenThousandths / 10000) + "." + fraction;
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.gfb.qrbill.zxing;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.common.DetectorResult;
+import com.google.zxing.qrcode.detector.Detector;
+
+/**
+ * Decodes the QR bill on a full page scan. On an A4 portrait page, the QR code is first searched
+ * for in the payment part, where the implementation guide places it, using a pyramid of
+ * downscaled copies of that region. When a symbol is detected on one of the levels, only the
+ * matching crop is decoded at full resolution. The whole region at full resolution and, finally,
+ * the whole page are only decoded when that fails.
+ *
+ * <p>Instances wrap a {@link QRDecoder} and, like it, are meant to be confined to one thread.</p>
+ */
+public class PageDecoder {
+
+    /**
+     * The stage that decoded the last page.
+     */
+    public enum Stage { PYRAMID, REGION, PAGE }
+
+    // A4 page and the expected QR code position (67 x 209 mm, 46 mm wide), with 15 mm leeway.
+    private static final double     PAGE_WIDTH_MM   = 210.0;
+    private static final double     PAGE_HEIGHT_MM  = 297.0;
+    private static final double     ROI_LEFT_MM     = 52.0;
+    private static final double     ROI_TOP_MM      = 194.0;
+    private static final double     ROI_RIGHT_MM    = 128.0;
+    private static final double     ROI_BOTTOM_MM   = 270.0;
+    private static final double     ASPECT_LEEWAY   = 0.08;
+
+    // The smallest side a pyramid level may have, and the quiet zone added around a detection.
+    private static final int        MIN_LEVEL_SIZE  = 320;
+    private static final int        CROP_MARGIN     = 8;
+
+    private final QRDecoder decoder;
+    private Stage lastStage;
+
+    public PageDecoder() {
+        this(new QRDecoder());
+    }
+
+    public PageDecoder(QRDecoder decoder) {
+        this.decoder = decoder;
+    }
+
+    /**
+     * Decodes the QR code on the page.
+     *
+     * @param page The luminance of the full page.
+     * @return The decoded result. Result points are relative to the page.
+     * @throws NotFoundException Thrown when no stage could find and decode a QR code.
+     */
+    public Result decode(LuminanceSource page) throws NotFoundException {
+        DecodeResult result = decode(page, null);
+        if (!result.isDecoded())
+            throw NotFoundException.getNotFoundInstance();
+        return result.getResult();
+    }
+
+    /**
+     * Decodes the QR code on the page, checking the deadline before each pyramid level and decode
+     * attempt.
+     *
+     * @param page The luminance of the full page.
+     * @param deadline The deadline, or null for none.
+     * @return The outcome; never null. Result points are relative to the page.
+     */
+    public DecodeResult decode(LuminanceSource page, DecodeDeadline deadline) {
+        lastStage = null;
+        int[] roi = getPaymentPartRegion(page.getWidth(), page.getHeight());
+
+        if (roi != null && page.isCropSupported()) {
+            LuminanceSource region = page.crop(roi[0], roi[1], roi[2], roi[3]);
+            byte[] luminance = region.getMatrix();
+            int width = region.getWidth();
+            int height = region.getHeight();
+
+            // Build the pyramid first, so that the coarsest level can be searched first.
+            int levels = 0;
+            while (Math.min(width >> (levels + 1), height >> (levels + 1)) >= MIN_LEVEL_SIZE)
+                levels++;
+            byte[][] pyramid = new byte[levels + 1][];
+            pyramid[0] = luminance;
+            for (int i = 1; i <= levels; i++)
+                pyramid[i] = halve(pyramid[i - 1], width >> (i - 1), height >> (i - 1));
+
+            for (int i = levels; i > 0; i--) {
+                if (deadline != null && deadline.isExpired())
+                    return decoder.expired(deadline);
+                int[] crop = detect(pyramid[i], width >> i, height >> i, i);
+                if (crop == null)
+                    continue;
+                int left = Math.max(0, crop[0]);
+                int top = Math.max(0, crop[1]);
+                int right = Math.min(width, crop[2]);
+                int bottom = Math.min(height, crop[3]);
+                DecodeResult result = decoder.attempt(region.crop(left, top, right - left, bottom - top), deadline);
+                if (isFinal(result)) {
+                    lastStage = result.isDecoded() ? Stage.PYRAMID : null;
+                    return result.offset(roi[0] + left, roi[1] + top);
+                }
+            }
+
+            DecodeResult result = decoder.attempt(region, deadline);
+            if (isFinal(result)) {
+                lastStage = result.isDecoded() ? Stage.REGION : null;
+                return result.offset(roi[0], roi[1]);
+            }
+        }
+
+        // The crops above are not counted, so that a page that could not be decoded counts as a
+        // single failure of the decoder.
+        DecodeResult result = decoder.decode(page, deadline);
+        lastStage = result.isDecoded() ? Stage.PAGE : null;
+        return result;
+    }
+
+    /**
+     * Gets the stage that decoded the last successful call.
+     *
+     * @return The stage, or null if the last call failed or no call has been made yet.
+     */
+    public Stage getLastStage() {
+        return lastStage;
+    }
+
+    /**
+     * Gets the underlying decoder.
+     */
+    public QRDecoder getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * Gets the region of the page where the QR code of the payment part is expected.
+     *
+     * @return The region as {left, top, width, height} in pixels, or null if the image does not
+     * have the proportions of an A4 portrait page.
+     */
+    static int[] getPaymentPartRegion(int width, int height) {
+        double aspect = (double) height / width;
+        double a4 = PAGE_HEIGHT_MM / PAGE_WIDTH_MM;
+        if (Math.abs(aspect - a4) > a4 * ASPECT_LEEWAY)
+            return null;
+
+        double sx = width / PAGE_WIDTH_MM;
+        double sy = height / PAGE_HEIGHT_MM;
+        int left = (int) (ROI_LEFT_MM * sx);
+        int top = (int) (ROI_TOP_MM * sy);
+        int right = Math.min(width, (int) Math.ceil(ROI_RIGHT_MM * sx));
+        int bottom = Math.min(height, (int) Math.ceil(ROI_BOTTOM_MM * sy));
+        return new int[] { left, top, right - left, bottom - top };
+    }
+
+    /**
+     * Looks for a QR symbol on a pyramid level, without decoding it.
+     *
+     * @return The area of the symbol and its quiet zone as {left, top, right, bottom}, in pixels of
+     * the full resolution region, or null if no symbol was detected.
+     */
+    private int[] detect(byte[] luminance, int width, int height, int level) {
+        LuminanceSource source = new PlanarYUVLuminanceSource(luminance, width, height, 0, 0, width, height, false);
+        DetectorResult detected;
+        try {
+            detected = new Detector(new BlockBinarizer(source).getBlackMatrix()).detect();
+        } catch (ReaderException e) {
+            return null;
+        }
+
+        ResultPoint[] points = detected.getPoints();
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = 0, maxY = 0;
+        for (ResultPoint p : points) {
+            minX = Math.min(minX, p.getX());
+            minY = Math.min(minY, p.getY());
+            maxX = Math.max(maxX, p.getX());
+            maxY = Math.max(maxY, p.getY());
+        }
+
+        // Finder pattern centres lie 3.5 modules inside the symbol; the bottom right corner has
+        // no finder pattern, so the spread of the three centres is extended to the full symbol.
+        int dimension = detected.getBits().getWidth();
+        float moduleSize = ResultPoint.distance(points[0], points[1]) / (dimension - 7);
+        float margin = (3.5F + CROP_MARGIN) * moduleSize;
+        int scale = 1 << level;
+        return new int[] {
+                (int) ((minX - margin) * scale),
+                (int) ((minY - margin) * scale),
+                (int) Math.ceil((maxX + margin) * scale),
+                (int) Math.ceil((maxY + margin) * scale)
+        };
+    }
+
+    /**
+     * Checks whether a stage ends the call: it either decoded the symbol or ran out of time. A crop
+     * that was not found or failed the pre-screen falls through to the next stage.
+     */
+    private static boolean isFinal(DecodeResult result) {
+        return result.getStatus() != DecodeResult.Status.NOT_FOUND && result.getStatus() != DecodeResult.Status.REJECTED;
+    }
+
+    /**
+     * Averages each 2 x 2 block of pixels into one.
+     */
+    static byte[] halve(byte[] luminance, int width, int height) {
+        int w = width >> 1;
+        int h = height >> 1;
+        byte[] out = new byte[w * h];
+        for (int y = 0; y < h; y++) {
+            int row0 = 2 * y * width;
+            int row1 = row0 + width;
+            int o = y * w;
+            for (int x = 0; x < w; x++) {
+                int i = 2 * x;
+                int sum = (luminance[row0 + i] & 0xFF) + (luminance[row0 + i + 1] & 0xFF)
+                        + (luminance[row1 + i] & 0xFF) + (luminance[row1 + i + 1] & 0xFF);
+                out[o + x] = (byte) ((sum + 2) >> 2);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Moves the result points of a result decoded on a crop back to page coordinates.
+     */
+    static Result offset(Result result, int left, int top) {
+        ResultPoint[] points = result.getResultPoints();
+        if (points == null)
+            return result;
+        ResultPoint[] moved = new ResultPoint[points.length];
+        for (int i = 0; i < points.length; i++)
+            moved[i] = new ResultPoint(points[i].getX() + left, points[i].getY() + top);
+        Result out = new Result(result.getText(), result.getRawBytes(), result.getNumBits(), moved,
+                result.getBarcodeFormat(), result.getTimestamp());
+        out.putAllMetadata(result.getResultMetadata());
+        return out;
+    }
+}
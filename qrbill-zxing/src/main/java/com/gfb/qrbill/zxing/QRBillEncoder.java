@@ -0,0 +1,576 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.gfb.qrbill.zxing;
+
+import com.gfb.qrbill.QRBill;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.decoder.Version;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A QR code encoder specialised for Swiss Payments Code payloads: UTF-8 byte mode and error
+ * correction level M only. It produces the same module-exact {@link BitMatrix} as
+ * {@link com.google.zxing.qrcode.QRCodeWriter} with level M, the UTF-8 character set and no
+ * margin, but skips the work a general purpose encoder has to do for each call:
+ *
+ * <ul>
+ *     <li>There is no mode analysis; the version follows directly from the payload length.</li>
+ *     <li>The Reed-Solomon generator polynomials and the code layout of every version are built
+ *     once, as is the matrix of function patterns and the data module order of each version.</li>
+ *     <li>The eight masks are applied to that template rather than rebuilding the matrix, and the
+ *     scoring of a mask stops as soon as its penalty reaches that of the best mask so far.</li>
+ * </ul>
+ *
+ * <p>The class is stateless and thread safe.</p>
+ */
+public class QRBillEncoder {
+
+    // The ECI designator of UTF-8, see ISO/IEC 18004 and the AIM ECI specification.
+    private static final int        UTF8_ECI            = 26;
+
+    private static final int        MODE_BYTE           = 0x4;
+    private static final int        MODE_ECI            = 0x7;
+
+    // Format and version information, see ISO/IEC 18004 annex C and D.
+    private static final int        TYPE_INFO_POLY      = 0x537;
+    private static final int        TYPE_INFO_MASK      = 0x5412;
+    private static final int        VERSION_INFO_POLY   = 0x1F25;
+    private static final int        LEVEL_M_BITS        = 0x0;
+    private static final int[][]    TYPE_INFO_COORDINATES = {
+            { 8, 0 }, { 8, 1 }, { 8, 2 }, { 8, 3 }, { 8, 4 }, { 8, 5 }, { 8, 7 }, { 8, 8 },
+            { 7, 8 }, { 5, 8 }, { 4, 8 }, { 3, 8 }, { 2, 8 }, { 1, 8 }, { 0, 8 } };
+
+    // Mask penalty weights.
+    private static final int        N1 = 3;
+    private static final int        N2 = 3;
+    private static final int        N3 = 40;
+    private static final int        N4 = 10;
+
+    // GF(256) with the QR code primitive polynomial; EXP is doubled to avoid a modulo.
+    private static final int[]      EXP = new int[512];
+    private static final int[]      LOG = new int[256];
+
+    // Level M code layout of each version, indexed by version number.
+    private static final int[]      TOTAL_CODEWORDS = new int[41];
+    private static final int[]      DATA_CODEWORDS  = new int[41];
+    private static final int[]      BLOCKS          = new int[41];
+    private static final int[]      EC_PER_BLOCK    = new int[41];
+    // Generator polynomials by degree, highest coefficient first and as logarithms.
+    private static final int[][]    GENERATORS      = new int[69][];
+    private static final int[]      TYPE_INFO       = new int[8];
+
+    private static final Template[] TEMPLATES       = new Template[41];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= 0x100)
+                x ^= 0x11D;
+        }
+        for (int i = 255; i < EXP.length; i++)
+            EXP[i] = EXP[i - 255];
+
+        for (int v = 1; v <= 40; v++) {
+            Version version = Version.getVersionForNumber(v);
+            Version.ECBlocks blocks = version.getECBlocksForLevel(ErrorCorrectionLevel.M);
+            TOTAL_CODEWORDS[v] = version.getTotalCodewords();
+            DATA_CODEWORDS[v] = version.getTotalCodewords() - blocks.getTotalECCodewords();
+            BLOCKS[v] = blocks.getNumBlocks();
+            EC_PER_BLOCK[v] = blocks.getECCodewordsPerBlock();
+            if (GENERATORS[EC_PER_BLOCK[v]] == null)
+                GENERATORS[EC_PER_BLOCK[v]] = buildGenerator(EC_PER_BLOCK[v]);
+        }
+
+        for (int mask = 0; mask < 8; mask++) {
+            int typeInfo = (LEVEL_M_BITS << 3) | mask;
+            TYPE_INFO[mask] = ((typeInfo << 10) | bchCode(typeInfo, TYPE_INFO_POLY)) ^ TYPE_INFO_MASK;
+        }
+    }
+
+    private QRBillEncoder() {
+    }
+
+    /**
+     * Encodes the text in byte mode as UTF-8, with a UTF-8 ECI header.
+     *
+     * @param text The payload.
+     * @return The module-exact matrix, without a quiet zone.
+     * @throws WriterException Thrown when the payload does not fit in a version 40 symbol.
+     */
+    public static BitMatrix encode(String text) throws WriterException {
+        return encode(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Encodes UTF-8 bytes, such as those of {@link QRBill#getQRCodeBytes()}, in byte mode with a
+     * UTF-8 ECI header.
+     *
+     * @param utf8 The payload bytes.
+     * @return The module-exact matrix, without a quiet zone.
+     * @throws WriterException Thrown when the payload does not fit in a version 40 symbol.
+     */
+    public static BitMatrix encode(byte[] utf8) throws WriterException {
+        return encode(utf8, UTF8_ECI);
+    }
+
+    /**
+     * Encodes bytes in byte mode.
+     *
+     * @param data The payload bytes.
+     * @param eci The ECI designator of their character set, or -1 for no ECI header.
+     * @return The module-exact matrix, without a quiet zone.
+     * @throws WriterException Thrown when the payload does not fit in a version 40 symbol.
+     */
+    static BitMatrix encode(byte[] data, int eci) throws WriterException {
+        int version = chooseVersion(data.length, eci >= 0);
+        if (version < 0)
+            throw new WriterException("Data too big");
+
+        byte[] codewords = interleave(dataCodewords(data, eci, version), version);
+        Template template = getTemplate(version);
+        int dimension = template.dimension;
+
+        byte[] best = null;
+        int bestPenalty = Integer.MAX_VALUE;
+        byte[] modules = new byte[dimension * dimension];
+        for (int mask = 0; mask < 8; mask++) {
+            place(template, codewords, mask, modules);
+            int penalty = penalty(modules, dimension, bestPenalty);
+            if (penalty < bestPenalty) {
+                bestPenalty = penalty;
+                byte[] swap = best == null ? new byte[modules.length] : best;
+                best = modules;
+                modules = swap;
+            }
+        }
+
+        BitMatrix matrix = new BitMatrix(dimension, dimension);
+        for (int y = 0, i = 0; y < dimension; y++) {
+            for (int x = 0; x < dimension; x++, i++) {
+                if (best[i] != 0)
+                    matrix.set(x, y);
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Gets the smallest version whose level M data capacity holds the payload in byte mode.
+     *
+     * @return The version, or -1 if even version 40 is too small.
+     */
+    static int chooseVersion(int length, boolean eci) {
+        for (int v = 1; v <= 40; v++) {
+            int header = (eci ? 4 + 8 : 0) + 4 + (v < 10 ? 8 : 16);
+            if ((DATA_CODEWORDS[v] * 8 - header) / 8 >= length)
+                return v;
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the header, payload, terminator and padding into the data codewords.
+     */
+    private static byte[] dataCodewords(byte[] data, int eci, int version) {
+        byte[] out = new byte[DATA_CODEWORDS[version]];
+        int bit = 0;
+        if (eci >= 0) {
+            bit = appendBits(out, bit, MODE_ECI, 4);
+            bit = appendBits(out, bit, eci, 8);
+        }
+        bit = appendBits(out, bit, MODE_BYTE, 4);
+        bit = appendBits(out, bit, data.length, version < 10 ? 8 : 16);
+        for (byte b : data)
+            bit = appendBits(out, bit, b & 0xFF, 8);
+
+        // Up to four terminator bits, then zero bits to the byte boundary; both already zero.
+        int capacity = out.length * 8;
+        bit += Math.min(4, capacity - bit);
+        for (int i = (bit + 7) / 8, pad = 0; i < out.length; i++, pad ^= 1)
+            out[i] = (byte) (pad == 0 ? 0xEC : 0x11);
+        return out;
+    }
+
+    private static int appendBits(byte[] out, int bit, int value, int count) {
+        for (int i = count - 1; i >= 0; i--, bit++) {
+            if (((value >> i) & 1) != 0)
+                out[bit >> 3] |= (byte) (0x80 >> (bit & 7));
+        }
+        return bit;
+    }
+
+    /**
+     * Splits the data codewords into blocks, appends the error correction codewords of each block
+     * and interleaves them. The first blocks are one data codeword shorter when the codewords do
+     * not divide evenly.
+     */
+    private static byte[] interleave(byte[] data, int version) {
+        int blocks = BLOCKS[version];
+        int ecLength = EC_PER_BLOCK[version];
+        int longBlocks = TOTAL_CODEWORDS[version] % blocks;
+        int shortBlocks = blocks - longBlocks;
+        int shortLength = DATA_CODEWORDS[version] / blocks;
+
+        byte[][] dataBlocks = new byte[blocks][];
+        byte[][] ecBlocks = new byte[blocks][];
+        for (int b = 0, offset = 0; b < blocks; b++) {
+            int length = b < shortBlocks ? shortLength : shortLength + 1;
+            byte[] block = new byte[length];
+            System.arraycopy(data, offset, block, 0, length);
+            offset += length;
+            dataBlocks[b] = block;
+            ecBlocks[b] = errorCorrection(block, ecLength);
+        }
+
+        byte[] out = new byte[TOTAL_CODEWORDS[version]];
+        int o = 0;
+        for (int i = 0; i <= shortLength; i++) {
+            for (int b = 0; b < blocks; b++) {
+                if (i < dataBlocks[b].length)
+                    out[o++] = dataBlocks[b][i];
+            }
+        }
+        for (int i = 0; i < ecLength; i++) {
+            for (int b = 0; b < blocks; b++)
+                out[o++] = ecBlocks[b][i];
+        }
+        return out;
+    }
+
+    /**
+     * Computes the remainder of the block, shifted by the generator degree, divided by the
+     * generator polynomial.
+     */
+    private static byte[] errorCorrection(byte[] block, int degree) {
+        int[] generator = GENERATORS[degree];
+        int[] remainder = new int[degree];
+        for (byte b : block) {
+            int factor = (b & 0xFF) ^ remainder[0];
+            System.arraycopy(remainder, 1, remainder, 0, degree - 1);
+            remainder[degree - 1] = 0;
+            if (factor != 0) {
+                int logFactor = LOG[factor];
+                for (int j = 0; j < degree; j++)
+                    remainder[j] ^= EXP[generator[j + 1] + logFactor];
+            }
+        }
+        byte[] out = new byte[degree];
+        for (int i = 0; i < degree; i++)
+            out[i] = (byte) remainder[i];
+        return out;
+    }
+
+    /**
+     * Builds the product of (x - a^i) for i from 0 to degree - 1, as logarithms of its
+     * coefficients, highest first.
+     */
+    private static int[] buildGenerator(int degree) {
+        int[] g = new int[degree + 1];
+        g[0] = 1;
+        for (int i = 0; i < degree; i++) {
+            // Multiply by (x + a^i), from the lowest coefficient up.
+            for (int j = i + 1; j > 0; j--)
+                g[j] = g[j - 1] == 0 ? g[j] : g[j] ^ EXP[LOG[g[j - 1]] + i];
+        }
+        int[] logs = new int[degree + 1];
+        for (int i = 0; i <= degree; i++)
+            logs[i] = LOG[g[i]];
+        return logs;
+    }
+
+    /**
+     * Fills the matrix with the template, the type information of the mask and the masked
+     * codeword bits. Remainder bits past the last codeword are zero before masking.
+     */
+    private static void place(Template template, byte[] codewords, int mask, byte[] modules) {
+        int dimension = template.dimension;
+        System.arraycopy(template.modules, 0, modules, 0, modules.length);
+
+        int typeInfo = TYPE_INFO[mask];
+        for (int i = 0; i < 15; i++) {
+            byte bit = (byte) ((typeInfo >> i) & 1);
+            modules[TYPE_INFO_COORDINATES[i][1] * dimension + TYPE_INFO_COORDINATES[i][0]] = bit;
+            if (i < 8)
+                modules[8 * dimension + dimension - i - 1] = bit;
+            else
+                modules[(dimension - 7 + (i - 8)) * dimension + 8] = bit;
+        }
+
+        int[] positions = template.dataPositions;
+        byte[] maskBits = template.maskBits[mask];
+        int bits = codewords.length * 8;
+        for (int k = 0; k < bits; k++)
+            modules[positions[k]] = (byte) (((codewords[k >> 3] >> (7 - (k & 7))) & 1) ^ maskBits[k]);
+        for (int k = bits; k < positions.length; k++)
+            modules[positions[k]] = maskBits[k];
+    }
+
+    private static boolean maskBit(int mask, int x, int y) {
+        int value;
+        switch (mask) {
+            case 0:
+                value = (y + x) & 1;
+                break;
+            case 1:
+                value = y & 1;
+                break;
+            case 2:
+                value = x % 3;
+                break;
+            case 3:
+                value = (y + x) % 3;
+                break;
+            case 4:
+                value = ((y / 2) + (x / 3)) & 1;
+                break;
+            case 5:
+                value = ((y * x) & 1) + ((y * x) % 3);
+                break;
+            case 6:
+                value = (((y * x) & 1) + ((y * x) % 3)) & 1;
+                break;
+            default:
+                value = (((y * x) % 3) + ((y + x) & 1)) & 1;
+                break;
+        }
+        return value == 0;
+    }
+
+    /**
+     * Scores a masked matrix with the four penalty rules, giving up once the penalty reaches the
+     * limit, since the mask can then no longer be chosen. Rules 1 and 3 are both counted on the run
+     * lengths of each row and column, which are found in a single pass.
+     *
+     * @return The penalty, or a value of at least the limit if scoring stopped early.
+     */
+    static int penalty(byte[] m, int n, int limit) {
+        // Rule 4: the balance of dark and light modules.
+        int dark = 0;
+        for (byte b : m)
+            dark += b;
+        int penalty = Math.abs(dark * 2 - m.length) * 10 / m.length * N4;
+
+        // Rules 1 and 3, row by row and column by column.
+        int[] runs = new int[n + 1];
+        for (int i = 0; i < n && penalty < limit; i++) {
+            penalty += linePenalty(m, i * n, 1, n, runs);
+            penalty += linePenalty(m, i, n, n, runs);
+        }
+        if (penalty >= limit)
+            return penalty;
+
+        // Rule 2: 2 x 2 blocks of one colour.
+        int blocks = 0;
+        for (int y = 0; y < n - 1; y++) {
+            for (int x = 0, i = y * n; x < n - 1; x++, i++) {
+                int value = m[i];
+                if (value == m[i + 1] && value == m[i + n] && value == m[i + n + 1])
+                    blocks++;
+            }
+        }
+        return penalty + N2 * blocks;
+    }
+
+    /**
+     * Scores one row or column for rule 1, runs of five or more modules of one colour, and rule 3,
+     * 1:1:3:1:1 dark-light-dark-light-dark patterns with four light modules, or the edge of the
+     * symbol, on either side.
+     */
+    private static int linePenalty(byte[] m, int start, int step, int n, int[] runs) {
+        // Branch-free: the current length is stored on every module, and only kept by moving on to
+        // the next slot when the colour changes.
+        int count = 0;
+        int length = 1;
+        for (int j = 1, i = start + step; j < n; j++, i += step) {
+            int change = m[i] ^ m[i - step];
+            runs[count] = length;
+            count += change;
+            length = length * (1 - change) + 1;
+        }
+        runs[count++] = length;
+
+        int penalty = 0;
+        for (int k = 0; k < count; k++) {
+            int excess = runs[k] - 5;
+            penalty += excess >= 0 ? N1 + excess : 0;
+        }
+
+        // The pattern starts on the last module of a dark run, so a light border on its left means
+        // a dark run of one module after at least four light ones or the start of the line, and
+        // likewise on its right.
+        int firstDark = m[start] == 1 ? 0 : 1;
+        for (int k = firstDark; k + 4 < count; k += 2) {
+            // The three module run is the rarest, so it is tested first.
+            if (runs[k + 2] != 3 || runs[k + 1] != 1 || runs[k + 3] != 1)
+                continue;
+            boolean left = runs[k] == 1 && (k == 0 || k == 1 || runs[k - 1] >= 4);
+            boolean right = runs[k + 4] == 1 && (k + 5 >= count - 1 || runs[k + 5] >= 4);
+            if (left || right)
+                penalty += N3;
+        }
+        return penalty;
+    }
+
+    private static int bchCode(int value, int poly) {
+        int msb = 32 - Integer.numberOfLeadingZeros(poly);
+        value <<= msb - 1;
+        while (32 - Integer.numberOfLeadingZeros(value) >= msb)
+            value ^= poly << (32 - Integer.numberOfLeadingZeros(value) - msb);
+        return value;
+    }
+
+    private static Template getTemplate(int version) {
+        Template template = TEMPLATES[version];
+        if (template == null) {
+            // Templates are immutable, so building one twice on a race does no harm.
+            template = new Template(version);
+            TEMPLATES[version] = template;
+        }
+        return template;
+    }
+
+    /**
+     * The function patterns and version information of a version, the order in which the data
+     * modules are filled and the data modules each mask flips. Type information modules are
+     * reserved but left for each mask.
+     */
+    private static class Template {
+        final int dimension;
+        final byte[] modules;
+        final int[] dataPositions;
+        // For each mask, whether it flips the data module at the same index of dataPositions.
+        final byte[][] maskBits;
+
+        Template(int version) {
+            int n = 17 + 4 * version;
+            dimension = n;
+            byte[] m = new byte[n * n];
+            boolean[] reserved = new boolean[n * n];
+
+            finderPattern(m, reserved, n, 0, 0);
+            finderPattern(m, reserved, n, n - 7, 0);
+            finderPattern(m, reserved, n, 0, n - 7);
+            // Separators: the light border around each finder pattern.
+            for (int i = 0; i < 8; i++) {
+                reserve(m, reserved, n, i, 7, 0);
+                reserve(m, reserved, n, n - 8 + i, 7, 0);
+                reserve(m, reserved, n, i, n - 8, 0);
+                reserve(m, reserved, n, 7, i, 0);
+                reserve(m, reserved, n, n - 8, i, 0);
+                reserve(m, reserved, n, 7, n - 8 + i, 0);
+            }
+            reserve(m, reserved, n, 8, n - 8, 1);
+
+            if (version >= 2) {
+                int[] centres = Version.getVersionForNumber(version).getAlignmentPatternCenters();
+                for (int cy : centres) {
+                    for (int cx : centres) {
+                        if (reserved[cy * n + cx])
+                            continue;
+                        for (int dy = -2; dy <= 2; dy++) {
+                            for (int dx = -2; dx <= 2; dx++) {
+                                int ring = Math.max(Math.abs(dx), Math.abs(dy));
+                                reserve(m, reserved, n, cx + dx, cy + dy, ring == 1 ? 0 : 1);
+                            }
+                        }
+                    }
+                }
+            }
+
+            for (int i = 8; i < n - 8; i++) {
+                int bit = (i + 1) % 2;
+                if (!reserved[6 * n + i])
+                    reserve(m, reserved, n, i, 6, bit);
+                if (!reserved[i * n + 6])
+                    reserve(m, reserved, n, 6, i, bit);
+            }
+
+            for (int i = 0; i < 15; i++) {
+                reserve(m, reserved, n, TYPE_INFO_COORDINATES[i][0], TYPE_INFO_COORDINATES[i][1], 0);
+                if (i < 8)
+                    reserve(m, reserved, n, n - i - 1, 8, 0);
+                else
+                    reserve(m, reserved, n, 8, n - 7 + (i - 8), 0);
+            }
+
+            if (version >= 7) {
+                int versionInfo = (version << 12) | bchCode(version, VERSION_INFO_POLY);
+                int bit = 17;
+                for (int i = 0; i < 6; i++) {
+                    for (int j = 0; j < 3; j++, bit--) {
+                        int value = (versionInfo >> (17 - bit)) & 1;
+                        reserve(m, reserved, n, i, n - 11 + j, value);
+                        reserve(m, reserved, n, n - 11 + j, i, value);
+                    }
+                }
+            }
+
+            // Two-module wide columns, from the right, alternately upwards and downwards,
+            // skipping the vertical timing pattern.
+            int[] positions = new int[n * n];
+            int count = 0;
+            int direction = -1;
+            int y = n - 1;
+            for (int x = n - 1; x > 0; x -= 2) {
+                if (x == 6)
+                    x--;
+                for (; y >= 0 && y < n; y += direction) {
+                    for (int i = 0; i < 2; i++) {
+                        if (!reserved[y * n + x - i])
+                            positions[count++] = y * n + x - i;
+                    }
+                }
+                direction = -direction;
+                y += direction;
+            }
+
+            modules = m;
+            dataPositions = new int[count];
+            System.arraycopy(positions, 0, dataPositions, 0, count);
+            maskBits = new byte[8][count];
+            for (int mask = 0; mask < 8; mask++) {
+                for (int k = 0; k < count; k++) {
+                    if (maskBit(mask, dataPositions[k] % n, dataPositions[k] / n))
+                        maskBits[mask][k] = 1;
+                }
+            }
+        }
+
+        private static void finderPattern(byte[] m, boolean[] reserved, int n, int left, int top) {
+            for (int dy = 0; dy < 7; dy++) {
+                for (int dx = 0; dx < 7; dx++) {
+                    int ring = Math.max(Math.abs(dx - 3), Math.abs(dy - 3));
+                    reserve(m, reserved, n, left + dx, top + dy, ring == 2 ? 0 : 1);
+                }
+            }
+        }
+
+        private static void reserve(byte[] m, boolean[] reserved, int n, int x, int y, int value) {
+            m[y * n + x] = (byte) value;
+            reserved[y * n + x] = true;
+        }
+    }
+}
@@ -1,5 +1,7 @@
-package com.gfb.qrbill;
+package com.gfb.qrbill.zxing;
 
+import com.gfb.qrbill.QRBill;
+import com.gfb.qrbill.QRBillLogger;
 import com.google.zxing.NotFoundException;
 import com.google.zxing.WriterException;
 
@@ -15,14 +17,14 @@ public class QRBillHelper {
             String response = ZXing.readQRImage(new File(inputPath));
             if (showCode) {
                 if (!inputPath.equals(outputPath)) {
-                    logMessage("First Scan:\n" + response + "\n");
+                    QRBillLogger.get().info("First Scan:\n{}\n", response);
                 } else {
-                    logMessage("Second Scan:\n" + response + "\n");
+                    QRBillLogger.get().info("Second Scan:\n{}\n", response);
                 }
             }
             return response;
         } catch (IOException e) {
-            logMessage("Error", errorTag + ": " + e.getMessage() + "\n");
+            QRBillLogger.get().warn("{}: {}", errorTag, e.getMessage());
             return null;
         }
     }
@@ -32,10 +34,10 @@ public class QRBillHelper {
             QRBill invoice = new QRBill(qrData);
             String response = invoice.getQRCode();
             if (showCode)
-                logMessage("Serialized:\n" + response + "\n");
+                QRBillLogger.get().info("Serialized:\n{}\n", response);
             return invoice;
         } catch (QRBill.QRBillException e) {
-            logMessage("Error", errorTag + ": " + e.getMessage() + "\n");
+            QRBillLogger.get().warn("{}: {}", errorTag, e.getMessage());
             return null;
         }
     }
@@ -56,26 +58,26 @@ public class QRBillHelper {
             invoice.getQRCode();
             return invoice;
         } catch (QRBill.QRBillException e) {
-            logMessage("Error", errorTag + ": " + e.getMessage() + "\n");
+            QRBillLogger.get().warn("{}: {}", errorTag, e.getMessage());
             return null;
         }
     }
 
     public static boolean writeQR (String qrFilePath, QRBill qrData, String errorTag, int length, boolean showCode) {
         try {
-            ZXing.generateQRCodeImage(qrData.getQRCode(), length, length, qrFilePath, CH_CROSS);
+            ZXing.generateQRCodeImage(qrData, length, length, qrFilePath, CH_CROSS);
             return true;
         } catch (IOException e) {
-            logMessage("Error", errorTag + ": " + e.getMessage() + "\n");
+            QRBillLogger.get().warn("{}: {}", errorTag, e.getMessage());
             return false;
         } catch (WriterException e) {
-            logMessage("Error", errorTag + ": " + e.getMessage() + "\n");
+            QRBillLogger.get().warn("{}: {}", errorTag, e.getMessage());
             return false;
         } catch (NotFoundException e) {
-            logMessage("Error", errorTag + ": " + e.getMessage() + "\n");
+            QRBillLogger.get().warn("{}: {}", errorTag, e.getMessage());
             return false;
         } catch (QRBill.QRBillException e) {
-            logMessage("Error", errorTag + ": " + e.getMessage() + "\n");
+            QRBillLogger.get().warn("{}: {}", errorTag, e.getMessage());
             return false;
         }
     }
@@ -90,14 +92,14 @@ public class QRBillHelper {
         if (altSch != null && altSch[index].length() > 0) {
             String[] temp = qrBill.getAlternativeSchema(index);
             if (temp.length > 2) {
-                logMessage("Full Alternative Schema: " + altSch[index]);
-                logMessage("Alternative Schema ID: " + temp[0]);
-                logMessage("Alternative Schema Seperator: " + temp[1]);
-                logMessage("Alternative Schema Data:");
+                QRBillLogger.get().info("Full Alternative Schema: {}", altSch[index]);
+                QRBillLogger.get().info("Alternative Schema ID: {}", temp[0]);
+                QRBillLogger.get().info("Alternative Schema Seperator: {}", temp[1]);
+                QRBillLogger.get().info("Alternative Schema Data:");
                 for (int i = 2; i < temp.length; i++)
-                    logMessage("    " + temp[i] + (i == temp.length - 1 ? "\n" : ""));
+                    QRBillLogger.get().info(i == temp.length - 1 ? "    {}\n" : "    {}", temp[i]);
             } else {
-                logMessage("Full Alternative Schema: " + altSch[index] + "\n");
+                QRBillLogger.get().info("Full Alternative Schema: {}\n", altSch[index]);
             }
 
         }
@@ -105,14 +107,14 @@ public class QRBillHelper {
 
     public static void showSummary (String[] data) {
         if (data[0] == null) {
-            logMessage("Generated Not NULL: " + String.valueOf(data[1] != null));
+            QRBillLogger.get().info("Generated Not NULL: {}", data[1] != null);
         } else {
-            logMessage("First Scan Not NULL: " + String.valueOf(data[0] != null));
-            logMessage("Serialized Not NULL: " + String.valueOf(data[1] != null));
-            logMessage("Serialized COPY: " + (data[1] == null ? "NULL" : String.valueOf(data[0].equalsIgnoreCase(data[1]))));
+            QRBillLogger.get().info("First Scan Not NULL: {}", data[0] != null);
+            QRBillLogger.get().info("Serialized Not NULL: {}", data[1] != null);
+            QRBillLogger.get().info("Serialized COPY: {}", data[1] == null ? "NULL" : data[0].equalsIgnoreCase(data[1]));
         }
-        logMessage("Second Scan Not NULL: " + String.valueOf(data[2] != null));
-        logMessage("Second Scan COPY: " + (data[1] == null ? "NULL" : String.valueOf(data[1].equalsIgnoreCase(data[2])) + "\n\n"));
+        QRBillLogger.get().info("Second Scan Not NULL: {}", data[2] != null);
+        QRBillLogger.get().info("Second Scan COPY: {}\n\n", data[1] == null ? "NULL" : data[1].equalsIgnoreCase(data[2]));
     }
 
     public static void cleanupFiles (String filename) {
@@ -127,7 +129,11 @@ public class QRBillHelper {
         logMessage ("QR", msg);
     }
 
+    /**
+     * Logs the message at level INFO through {@link QRBillLogger}, without waiting for it to be
+     * written.
+     */
     public static void logMessage (String tag, String msg) {
-        System.out.println("[" + tag + "] " + msg);
+        QRBillLogger.get().log(QRBillLogger.Level.INFO, tag, msg);
     }
 }
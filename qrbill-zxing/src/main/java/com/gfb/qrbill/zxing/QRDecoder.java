@@ -0,0 +1,269 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.gfb.qrbill.zxing;
+
+import com.gfb.qrbill.spi.PipelineEvents;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.multi.qrcode.QRCodeMultiReader;
+import com.google.zxing.qrcode.QRCodeReader;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * A reusable QR code decoder, which tries a cheap pass first and only falls back to the
+ * expensive one when that fails:
+ *
+ * <ol>
+ *     <li>{@link Tier#FAST}: {@link GlobalHistogramBinarizer}, without TRY_HARDER.</li>
+ *     <li>{@link Tier#THOROUGH}: {@link BlockBinarizer}, with TRY_HARDER.</li>
+ * </ol>
+ *
+ * <p>Calls made with a {@link DecodeDeadline} check it before each tier and again after
+ * binarizing and after detecting, so a damaged image cannot hold the calling thread for much
+ * longer than the deadline plus a single binarize, detect or decode step.</p>
+ *
+ * <p>With the pre-screen enabled, each image is first checked with {@link ImageQuality}, and
+ * hopeless ones are rejected before any tier runs.</p>
+ *
+ * <p>Only the QR code detector and decoder of {@link QRCodeReader} are used, as a QR bill never
+ * carries any other format; each tier is reported to {@link PipelineEvents}. Instances
+ * are not thread safe and are meant to be confined to one thread and reused;
+ * {@link ZXing#readQRImage(java.io.File)} keeps one per thread.</p>
+ */
+public class QRDecoder {
+
+    /**
+     * The decoding passes, cheapest first.
+     */
+    public enum Tier { FAST, THOROUGH }
+
+    // The strategy reported to PipelineEvents by decodeMultiple.
+    private static final String     MULTIPLE        = "multiple";
+
+    private final QRCodeMultiReader multiReader = new QRCodeMultiReader();
+    private final Map<DecodeHintType, Object> fastHints = new EnumMap<>(DecodeHintType.class);
+    private final Map<DecodeHintType, Object> thoroughHints = new EnumMap<>(DecodeHintType.class);
+    private final long[] tierCounts = new long[Tier.values().length];
+    private long failures;
+    private long timeouts;
+    private long rejections;
+    private boolean preScreen;
+    private ImageQuality lastQuality;
+    private Tier lastTier;
+
+    public QRDecoder() {
+        thoroughHints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+    }
+
+    /**
+     * Decodes the QR code in the source, trying each tier in turn.
+     *
+     * @param source The image luminance.
+     * @return The decoded result.
+     * @throws NotFoundException Thrown when no tier could find and decode a QR code.
+     */
+    public Result decode(LuminanceSource source) throws NotFoundException {
+        DecodeResult result = decode(source, (DecodeDeadline) null);
+        if (!result.isDecoded())
+            throw NotFoundException.getNotFoundInstance();
+        return result.getResult();
+    }
+
+    /**
+     * Decodes the QR code in the source, trying each tier in turn until one succeeds or the
+     * deadline expires.
+     *
+     * @param source The image luminance.
+     * @param deadline The deadline, or null for none.
+     * @return The outcome; never null.
+     */
+    public DecodeResult decode(LuminanceSource source, DecodeDeadline deadline) {
+        return count(attempt(source, deadline));
+    }
+
+    /**
+     * Runs the tiers like {@link #decode(LuminanceSource, DecodeDeadline)}, without counting a
+     * failure or a rejection, so that a caller trying several crops of one image can count it
+     * once with {@link #count(DecodeResult)}. Expired deadlines are counted, as they end the call.
+     */
+    DecodeResult attempt(LuminanceSource source, DecodeDeadline deadline) {
+        lastTier = null;
+        lastQuality = null;
+        if (preScreen) {
+            ImageQuality quality = ImageQuality.assess(source);
+            lastQuality = quality;
+            if (quality.isHopeless())
+                return DecodeResult.rejected(quality);
+        }
+        for (Tier tier : Tier.values()) {
+            if (deadline != null && deadline.isExpired())
+                return expired(deadline);
+            Result result = decode(source, tier, deadline);
+            if (result != null)
+                return DecodeResult.decoded(result);
+        }
+        if (deadline != null && deadline.isExpired())
+            return expired(deadline);
+        return DecodeResult.notFound();
+    }
+
+    /**
+     * Runs a single decoding tier.
+     *
+     * @param source The image luminance.
+     * @param tier The tier to run.
+     * @return The decoded result, or null if the tier did not succeed.
+     */
+    public Result decode(LuminanceSource source, Tier tier) {
+        return decode(source, tier, null);
+    }
+
+    private Result decode(LuminanceSource source, Tier tier, DecodeDeadline deadline) {
+        BinaryBitmap bitmap;
+        Map<DecodeHintType, Object> hints;
+        if (tier == Tier.FAST) {
+            bitmap = new BinaryBitmap(new GlobalHistogramBinarizer(source));
+            hints = fastHints;
+        } else {
+            bitmap = new BinaryBitmap(new BlockBinarizer(source));
+            hints = thoroughHints;
+        }
+
+        try {
+            Result result = StagedReader.read(bitmap, hints, tier, deadline);
+            if (result == null)
+                return null;
+            lastTier = tier;
+            tierCounts[tier.ordinal()]++;
+            return result;
+        } catch (ReaderException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Counts the outcome of an {@link #attempt(LuminanceSource, DecodeDeadline)} as a failure or a
+     * rejection, as applicable.
+     */
+    DecodeResult count(DecodeResult result) {
+        if (result.getStatus() == DecodeResult.Status.NOT_FOUND)
+            failures++;
+        else if (result.getStatus() == DecodeResult.Status.REJECTED)
+            rejections++;
+        return result;
+    }
+
+    /**
+     * Counts a call whose deadline expired and gets its result.
+     */
+    DecodeResult expired(DecodeDeadline deadline) {
+        timeouts++;
+        return DecodeResult.expired(deadline);
+    }
+
+    /**
+     * Decodes every QR code in the source. The source is binarized once and all symbols are
+     * located in that single binary image, using {@link BlockBinarizer} and TRY_HARDER. The call
+     * is reported to {@link PipelineEvents} as a single decode stage.
+     *
+     * @param source The image luminance.
+     * @return The decoded results, in no particular order.
+     * @throws NotFoundException Thrown when no QR code could be found and decoded.
+     */
+    public Result[] decodeMultiple(LuminanceSource source) throws NotFoundException {
+        Object event = PipelineEvents.begin();
+        Result[] results;
+        try {
+            results = multiReader.decodeMultiple(new BinaryBitmap(new BlockBinarizer(source)), thoroughHints);
+        } catch (NotFoundException e) {
+            PipelineEvents.end(event, PipelineEvents.Stage.DECODE, 0, source.getWidth(), source.getHeight(), MULTIPLE, "not found");
+            throw e;
+        } finally {
+            multiReader.reset();
+        }
+        long rawBytes = 0;
+        for (Result result : results)
+            rawBytes += result.getRawBytes() == null ? 0 : result.getRawBytes().length;
+        PipelineEvents.end(event, PipelineEvents.Stage.DECODE, rawBytes, source.getWidth(), source.getHeight(), MULTIPLE, "decoded");
+        return results;
+    }
+
+    /**
+     * Sets whether images are checked with {@link ImageQuality} before decoding, and rejected when
+     * hopeless. Off by default.
+     */
+    public void setPreScreen(boolean preScreen) {
+        this.preScreen = preScreen;
+    }
+
+    /**
+     * Gets the quality estimate of the last image, when the pre-screen is enabled.
+     *
+     * @return The estimate, or null if the last image was not pre-screened.
+     */
+    public ImageQuality getLastQuality() {
+        return lastQuality;
+    }
+
+    /**
+     * Gets the tier that decoded the last successful call.
+     *
+     * @return The tier, or null if the last call failed or no call has been made yet.
+     */
+    public Tier getLastTier() {
+        return lastTier;
+    }
+
+    /**
+     * Gets how many decodes succeeded on the given tier since this decoder was created.
+     */
+    public long getTierCount(Tier tier) {
+        return tierCounts[tier.ordinal()];
+    }
+
+    /**
+     * Gets how many decodes failed on every tier since this decoder was created.
+     */
+    public long getFailureCount() {
+        return failures;
+    }
+
+    /**
+     * Gets how many decodes were given up because their deadline expired or was cancelled since
+     * this decoder was created.
+     */
+    public long getTimeoutCount() {
+        return timeouts;
+    }
+
+    /**
+     * Gets how many images were rejected by the pre-screen since this decoder was created.
+     */
+    public long getRejectedCount() {
+        return rejections;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.gfb.qrbill.zxing;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * A luminance source that reads the data of a grayscale, BGR or packed RGB raster directly, instead
+ * of boxing every pixel into an ARGB integer through {@link BufferedImage#getRGB}. Grayscale rasters
+ * are used as they are, without copying; colour rasters are converted once, in a single pass over
+ * the data with the same weights as {@link BufferedImageLuminanceSource}. Cropping shares the
+ * luminance data.
+ */
+public class RasterLuminanceSource extends LuminanceSource {
+
+    private final byte[] luminance;
+    private final int dataWidth;
+    private final int offset;
+
+    /**
+     * Creates a luminance source for the image, reading its bytes directly where the raster
+     * layout allows it, and falling back to {@link BufferedImageLuminanceSource} otherwise.
+     */
+    public static LuminanceSource create(BufferedImage image) {
+        Raster raster = image.getRaster();
+        if (raster.getDataBuffer() instanceof DataBufferInt && raster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+            return createPacked(image, raster);
+        if (!(raster.getDataBuffer() instanceof DataBufferByte) || !(raster.getSampleModel() instanceof ComponentSampleModel))
+            return new BufferedImageLuminanceSource(image);
+
+        ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+        byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int stride = model.getScanlineStride();
+        int base = raster.getDataBuffer().getOffset()
+                - raster.getSampleModelTranslateY() * stride
+                - raster.getSampleModelTranslateX() * model.getPixelStride();
+
+        switch (image.getType()) {
+            case BufferedImage.TYPE_BYTE_GRAY:
+                return new RasterLuminanceSource(data, stride, base, width, height);
+            case BufferedImage.TYPE_3BYTE_BGR:
+                return new RasterLuminanceSource(toLuminance(data, base, stride, width, height), width, 0, width, height);
+            default:
+                return new BufferedImageLuminanceSource(image);
+        }
+    }
+
+    private static LuminanceSource createPacked(BufferedImage image, Raster raster) {
+        SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int stride = model.getScanlineStride();
+        int base = raster.getDataBuffer().getOffset()
+                - raster.getSampleModelTranslateY() * stride
+                - raster.getSampleModelTranslateX();
+
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+                return new RasterLuminanceSource(toLuminance(data, base, stride, width, height, false, false), width, 0, width, height);
+            case BufferedImage.TYPE_INT_ARGB:
+                return new RasterLuminanceSource(toLuminance(data, base, stride, width, height, true, false), width, 0, width, height);
+            case BufferedImage.TYPE_INT_BGR:
+                return new RasterLuminanceSource(toLuminance(data, base, stride, width, height, false, true), width, 0, width, height);
+            default:
+                return new BufferedImageLuminanceSource(image);
+        }
+    }
+
+    /**
+     * @param luminance The luminance bytes, row by row.
+     * @param dataWidth The length of a row in the luminance array.
+     * @param offset The index of the first pixel in the luminance array.
+     * @param width The width of the source.
+     * @param height The height of the source.
+     */
+    public RasterLuminanceSource(byte[] luminance, int dataWidth, int offset, int width, int height) {
+        super(width, height);
+        this.luminance = luminance;
+        this.dataWidth = dataWidth;
+        this.offset = offset;
+    }
+
+    @Override
+    public byte[] getRow(int y, byte[] row) {
+        if (y < 0 || y >= getHeight())
+            throw new IllegalArgumentException("Requested row is outside the image: " + y);
+        int width = getWidth();
+        if (row == null || row.length < width)
+            row = new byte[width];
+        System.arraycopy(luminance, offset + y * dataWidth, row, 0, width);
+        return row;
+    }
+
+    @Override
+    public byte[] getMatrix() {
+        int width = getWidth();
+        int height = getHeight();
+        if (offset == 0 && width == dataWidth && luminance.length == width * height)
+            return luminance;
+
+        byte[] matrix = new byte[width * height];
+        for (int y = 0; y < height; y++)
+            System.arraycopy(luminance, offset + y * dataWidth, matrix, y * width, width);
+        return matrix;
+    }
+
+    @Override
+    public boolean isCropSupported() {
+        return true;
+    }
+
+    @Override
+    public LuminanceSource crop(int left, int top, int width, int height) {
+        if (left < 0 || top < 0 || left + width > getWidth() || top + height > getHeight())
+            throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+        return new RasterLuminanceSource(luminance, dataWidth, offset + top * dataWidth + left, width, height);
+    }
+
+    private static byte[] toLuminance(byte[] bgr, int base, int stride, int width, int height) {
+        byte[] out = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            int i = base + y * stride;
+            int o = y * width;
+            for (int x = 0; x < width; x++, i += 3) {
+                int b = bgr[i] & 0xFF;
+                int g = bgr[i + 1] & 0xFF;
+                int r = bgr[i + 2] & 0xFF;
+                out[o + x] = (byte) ((306 * r + 601 * g + 117 * b + 0x200) >> 10);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Converts packed pixels to luminance. Fully transparent pixels are white, as in
+     * {@link BufferedImageLuminanceSource}.
+     */
+    private static byte[] toLuminance(int[] pixels, int base, int stride, int width, int height, boolean alpha, boolean bgr) {
+        byte[] out = new byte[width * height];
+        int redShift = bgr ? 0 : 16;
+        int blueShift = bgr ? 16 : 0;
+        for (int y = 0; y < height; y++) {
+            int i = base + y * stride;
+            int o = y * width;
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[i + x];
+                int r = (pixel >> redShift) & 0xFF;
+                int g = (pixel >> 8) & 0xFF;
+                int b = (pixel >> blueShift) & 0xFF;
+                int luminance = (306 * r + 601 * g + 117 * b + 0x200) >> 10;
+                if (alpha && (pixel >>> 24) == 0)
+                    luminance = 0xFF;
+                out[o + x] = (byte) luminance;
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.gfb.qrbill.zxing;
+
+import com.gfb.qrbill.QRBill;
+import com.google.zxing.ResultPoint;
+
+/**
+ * A QR bill found in an image, together with where it was found.
+ */
+public class ScannedQRBill {
+
+    private final QRBill bill;
+    private final String text;
+    private final ResultPoint[] points;
+
+    public ScannedQRBill(QRBill bill, String text, ResultPoint[] points) {
+        this.bill = bill;
+        this.text = text;
+        this.points = points;
+    }
+
+    /**
+     * Gets the parsed bill.
+     */
+    public QRBill getBill() {
+        return bill;
+    }
+
+    /**
+     * Gets the raw QR code payload the bill was parsed from.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Gets the finder pattern centres (bottom left, top left, top right) and, when found, the
+     * alignment pattern of the QR code, in image pixels.
+     */
+    public ResultPoint[] getPoints() {
+        return points;
+    }
+
+    /**
+     * Gets the bounding box of the result points.
+     *
+     * @return Integer Array. The box as {left, top, right, bottom} in image pixels.
+     */
+    public int[] getBounds() {
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = 0, maxY = 0;
+        for (ResultPoint p : points) {
+            minX = Math.min(minX, p.getX());
+            minY = Math.min(minY, p.getY());
+            maxX = Math.max(maxX, p.getX());
+            maxY = Math.max(maxY, p.getY());
+        }
+        return new int[] { (int) minX, (int) minY, (int) Math.ceil(maxX), (int) Math.ceil(maxY) };
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.gfb.qrbill.zxing;
+
+import com.gfb.qrbill.spi.PipelineEvents;
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultMetadataType;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.DecoderResult;
+import com.google.zxing.common.DetectorResult;
+import com.google.zxing.qrcode.QRCodeReader;
+import com.google.zxing.qrcode.decoder.Decoder;
+import com.google.zxing.qrcode.decoder.QRCodeDecoderMetaData;
+import com.google.zxing.qrcode.detector.Detector;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a QR code the way {@link QRCodeReader} does, but binarizes, detects and decodes as
+ * separate steps, so that the deadline can be checked between them and each step is reported to
+ * {@link PipelineEvents} as a stage of its own.
+ */
+final class StagedReader {
+
+    // Stateless, so it is shared by all threads.
+    private static final Decoder    DECODER         = new Decoder();
+
+    private StagedReader() {
+    }
+
+    /**
+     * Reads the QR code in the bitmap.
+     *
+     * @param hints The decode hints, or null for none.
+     * @param strategy The strategy, as reported to {@link PipelineEvents}.
+     * @param deadline The deadline, or null for none.
+     * @return The result, or null if the deadline expired while binarizing or detecting.
+     * @throws ReaderException Thrown when no QR code could be detected or decoded.
+     * @throws IllegalArgumentException Thrown for the PURE_BARCODE hint, as this reader always
+     * detects the symbol; use {@link QRCodeReader} for pure barcodes.
+     */
+    static Result read(BinaryBitmap bitmap, Map<DecodeHintType, ?> hints, Object strategy, DecodeDeadline deadline) throws ReaderException {
+        if (hints != null && hints.containsKey(DecodeHintType.PURE_BARCODE))
+            throw new IllegalArgumentException("PURE_BARCODE is not supported.");
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+
+        Object event = PipelineEvents.begin();
+        BitMatrix matrix;
+        try {
+            matrix = bitmap.getBlackMatrix();
+        } catch (ReaderException e) {
+            PipelineEvents.end(event, PipelineEvents.Stage.BINARIZE, 0, width, height, strategy, "failed");
+            throw e;
+        }
+        PipelineEvents.end(event, PipelineEvents.Stage.BINARIZE, 0, width, height, strategy, "binarized");
+        if (deadline != null && deadline.isExpired())
+            return null;
+
+        event = PipelineEvents.begin();
+        DetectorResult detected;
+        try {
+            detected = new Detector(matrix).detect(hints);
+        } catch (ReaderException e) {
+            PipelineEvents.end(event, PipelineEvents.Stage.DETECT, 0, width, height, strategy, "not found");
+            throw e;
+        }
+        PipelineEvents.end(event, PipelineEvents.Stage.DETECT, 0, width, height, strategy, "found");
+        if (deadline != null && deadline.isExpired())
+            return null;
+
+        event = PipelineEvents.begin();
+        DecoderResult decoded;
+        try {
+            decoded = DECODER.decode(detected.getBits(), hints);
+        } catch (ReaderException e) {
+            PipelineEvents.end(event, PipelineEvents.Stage.DECODE, 0, width, height, strategy, "failed");
+            throw e;
+        }
+        PipelineEvents.end(event, PipelineEvents.Stage.DECODE, decoded.getRawBytes() == null ? 0 : decoded.getRawBytes().length,
+                width, height, strategy, "decoded");
+
+        ResultPoint[] points = detected.getPoints();
+        if (decoded.getOther() instanceof QRCodeDecoderMetaData)
+            ((QRCodeDecoderMetaData) decoded.getOther()).applyMirroredCorrection(points);
+        Result result = new Result(decoded.getText(), decoded.getRawBytes(), points, BarcodeFormat.QR_CODE);
+        List<byte[]> byteSegments = decoded.getByteSegments();
+        if (byteSegments != null)
+            result.putMetadata(ResultMetadataType.BYTE_SEGMENTS, byteSegments);
+        String ecLevel = decoded.getECLevel();
+        if (ecLevel != null)
+            result.putMetadata(ResultMetadataType.ERROR_CORRECTION_LEVEL, ecLevel);
+        if (decoded.hasStructuredAppend()) {
+            result.putMetadata(ResultMetadataType.STRUCTURED_APPEND_SEQUENCE, decoded.getStructuredAppendSequenceNumber());
+            result.putMetadata(ResultMetadataType.STRUCTURED_APPEND_PARITY, decoded.getStructuredAppendParity());
+        }
+        return result;
+    }
+}
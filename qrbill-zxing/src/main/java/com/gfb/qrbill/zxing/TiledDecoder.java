@@ -0,0 +1,273 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.gfb.qrbill.zxing;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decodes very large images by splitting them into overlapping tiles, which are decoded in
+ * parallel on a fork-join pool. The overlap should be at least the size of a QR code and its
+ * quiet zone in pixels, so that every symbol lies wholly within at least one tile.
+ *
+ * <p>Tiles are decoded in waves, so that no more tiles are in memory at once than the memory
+ * limit allows. When only the first QR bill is wanted, the remaining tiles are skipped as soon as
+ * one tile yields a Swiss Payments Code payload. Each worker decodes with its own thread-confined
+ * {@link QRDecoder}, see {@link ZXing#getDecoder()}. Unlike the decoders, instances of this class
+ * may be shared between threads.</p>
+ */
+public class TiledDecoder {
+
+    /**
+     * Default tile size in pixels; about 130 mm at 600 dpi.
+     */
+    public static final int         DEFAULT_TILE_SIZE   = 3072;
+    /**
+     * Default tile overlap in pixels; a 46 mm QR code with its 5 mm quiet zones at 600 dpi.
+     */
+    public static final int         DEFAULT_OVERLAP     = 1324;
+    /**
+     * Default memory limit per decode call, in bytes.
+     */
+    public static final long        DEFAULT_MEMORY_LIMIT = 64L * 1024 * 1024;
+    /**
+     * Memory budget for loading an image to be tiled, in bytes; enough for an A4 colour scan at
+     * 600 dpi, so that it is not subsampled below the resolution the default tile size and
+     * overlap assume. See {@link ImageLoader#load(java.io.File, long)}.
+     */
+    public static final long        IMAGE_BUDGET        = 144L * 1024 * 1024;
+
+    // Luminance copy, binarized matrix and binarizer working arrays, per tile pixel.
+    private static final int        BYTES_PER_PIXEL     = 2;
+
+    private static final ForkJoinPool SHARED_POOL = new ForkJoinPool();
+
+    private final ForkJoinPool pool;
+    private final int tileSize;
+    private final int overlap;
+    private final long memoryLimit;
+
+    public TiledDecoder() {
+        this(SHARED_POOL, DEFAULT_TILE_SIZE, DEFAULT_OVERLAP, DEFAULT_MEMORY_LIMIT);
+    }
+
+    /**
+     * @param pool The pool the tiles are decoded on.
+     * @param tileSize The width and height of a tile in pixels.
+     * @param overlap The overlap between neighbouring tiles in pixels. Must be less than the tile
+     *                size.
+     * @param memoryLimit The most memory, in bytes, that the tiles of one call may use at once.
+     *                    At least one tile is always decoded at a time.
+     */
+    public TiledDecoder(ForkJoinPool pool, int tileSize, int overlap, long memoryLimit) {
+        if (overlap < 0 || overlap >= tileSize)
+            throw new IllegalArgumentException("Overlap must be positive and less than the tile size.");
+        this.pool = pool;
+        this.tileSize = tileSize;
+        this.overlap = overlap;
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * Decodes the QR codes in the image.
+     *
+     * @param source The luminance of the whole image.
+     * @param findAll Whether every QR code is wanted, or only the first Swiss Payments Code.
+     * @return The results, in tile order and without duplicates from overlapping tiles, or only the
+     * first Swiss Payments Code if not all are wanted. Result points are relative to the whole
+     * image. Identical QR codes at different places on the image are all returned. Empty if
+     * nothing could be decoded.
+     */
+    public List<Result> decode(LuminanceSource source, boolean findAll) {
+        if (!source.isCropSupported())
+            source = new PlanarYUVLuminanceSource(source.getMatrix(), source.getWidth(), source.getHeight(),
+                    0, 0, source.getWidth(), source.getHeight(), false);
+
+        List<int[]> tiles = getTiles(source.getWidth(), source.getHeight());
+        Result[][] results = new Result[tiles.size()][];
+        AtomicBoolean done = new AtomicBoolean(false);
+
+        int[] first = tiles.get(0);
+        long tileBytes = (long) first[2] * first[3] * BYTES_PER_PIXEL;
+        int wave = (int) Math.max(1, Math.min(tiles.size(), memoryLimit / tileBytes));
+
+        for (int start = 0; start < tiles.size() && !done.get(); start += wave) {
+            int end = Math.min(tiles.size(), start + wave);
+            pool.invoke(new TileTask(source, tiles, results, start, end, findAll, done));
+        }
+
+        List<Result> out = new ArrayList<Result>();
+        for (Result[] found : results) {
+            if (found == null)
+                continue;
+            for (Result result : found) {
+                if (isDuplicate(result, out))
+                    continue;
+                if (findAll) {
+                    out.add(result);
+                } else if (ZXing.isSwissPaymentsCode(result.getText())) {
+                    out.add(result);
+                    return out;
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Checks whether the result is the same QR code as one already found in an overlapping tile:
+     * the text matches, and the centres of their result points are within one symbol of each
+     * other. Results without result points are told apart by their text alone.
+     */
+    static boolean isDuplicate(Result result, List<Result> found) {
+        ResultPoint[] points = result.getResultPoints();
+        for (Result other : found) {
+            if (!other.getText().equals(result.getText()))
+                continue;
+            ResultPoint[] otherPoints = other.getResultPoints();
+            if (points == null || points.length == 0 || otherPoints == null || otherPoints.length == 0)
+                return true;
+            float size = Math.max(getSpan(points), getSpan(otherPoints));
+            if (ResultPoint.distance(getCentre(points), getCentre(otherPoints)) <= size)
+                return true;
+        }
+        return false;
+    }
+
+    private static ResultPoint getCentre(ResultPoint[] points) {
+        float x = 0;
+        float y = 0;
+        for (ResultPoint point : points) {
+            x += point.getX();
+            y += point.getY();
+        }
+        return new ResultPoint(x / points.length, y / points.length);
+    }
+
+    /**
+     * The greatest distance between two of the points; about the size of the symbol, as the
+     * finder patterns sit in its corners.
+     */
+    private static float getSpan(ResultPoint[] points) {
+        float span = 0;
+        for (int i = 0; i < points.length; i++) {
+            for (int j = i + 1; j < points.length; j++)
+                span = Math.max(span, ResultPoint.distance(points[i], points[j]));
+        }
+        return span;
+    }
+
+    /**
+     * Splits the image into overlapping tiles. The last tile of a row or column is moved back so
+     * that it ends on the image edge, rather than being narrower than the others.
+     *
+     * @return The tiles as {left, top, width, height}, row by row.
+     */
+    List<int[]> getTiles(int width, int height) {
+        List<int[]> tiles = new ArrayList<int[]>();
+        int[] xs = getTileStarts(width);
+        int[] ys = getTileStarts(height);
+        for (int y : ys) {
+            for (int x : xs)
+                tiles.add(new int[] { x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y) });
+        }
+        return tiles;
+    }
+
+    private int[] getTileStarts(int length) {
+        if (length <= tileSize)
+            return new int[] { 0 };
+        int step = tileSize - overlap;
+        int count = (length - tileSize + step - 1) / step + 1;
+        int[] starts = new int[count];
+        for (int i = 0; i < count; i++)
+            starts[i] = Math.min(i * step, length - tileSize);
+        return starts;
+    }
+
+    private static class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final LuminanceSource source;
+        private final List<int[]> tiles;
+        private final Result[][] results;
+        private final int start;
+        private final int end;
+        private final boolean findAll;
+        private final AtomicBoolean done;
+
+        TileTask(LuminanceSource source, List<int[]> tiles, Result[][] results, int start, int end,
+                 boolean findAll, AtomicBoolean done) {
+            this.source = source;
+            this.tiles = tiles;
+            this.results = results;
+            this.start = start;
+            this.end = end;
+            this.findAll = findAll;
+            this.done = done;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > 1) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new TileTask(source, tiles, results, start, middle, findAll, done),
+                        new TileTask(source, tiles, results, middle, end, findAll, done));
+                return;
+            }
+            if (done.get())
+                return;
+
+            int[] tile = tiles.get(start);
+            LuminanceSource crop = source.crop(tile[0], tile[1], tile[2], tile[3]);
+            QRDecoder decoder = ZXing.getDecoder();
+            Result[] found;
+            try {
+                found = findAll ? decoder.decodeMultiple(crop) : new Result[] { decoder.decode(crop) };
+            } catch (NotFoundException e) {
+                // Most tiles hold no QR code, but a tile holding several confuses the single
+                // symbol detector.
+                if (findAll)
+                    return;
+                try {
+                    found = decoder.decodeMultiple(crop);
+                } catch (NotFoundException e2) {
+                    return;
+                }
+            }
+
+            for (int i = 0; i < found.length; i++) {
+                found[i] = PageDecoder.offset(found[i], tile[0], tile[1]);
+                if (!findAll && ZXing.isSwissPaymentsCode(found[i].getText()))
+                    done.set(true);
+            }
+            results[start] = found;
+        }
+    }
+}
@@ -0,0 +1,682 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.gfb.qrbill.zxing;
+
+import com.gfb.qrbill.Metrics;
+import com.gfb.qrbill.QRBill;
+import com.gfb.qrbill.QRBillLogger;
+import com.gfb.qrbill.QRBillMetrics;
+import com.gfb.qrbill.spi.PipelineEvents;
+import com.google.zxing.*;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.DecoderResult;
+import com.google.zxing.qrcode.QRCodeWriter;
+import com.google.zxing.qrcode.decoder.Decoder;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public class ZXing {
+
+    private static final double     MM_PER_INCH     = 25.4;
+    private static final double     QUIET_ZONE_MM   = 5.0;
+    // The character set of coding type 1. Despite its name, QRBill#CODING_LATIN_1 is UTF-8,
+    // restricted to the Latin characters.
+    private static final String     UTF_8           = "UTF-8";
+    // The quiet zone QRCodeWriter puts around the symbol, in modules.
+    private static final int        QRCODEWRITER_QUIET_ZONE = 4;
+    
+    private static final ThreadLocal<QRDecoder> DECODER = new ThreadLocal<QRDecoder>() {
+        @Override
+        protected QRDecoder initialValue() {
+            return new QRDecoder();
+        }
+    };
+
+    private static final ThreadLocal<PageDecoder> PAGE_DECODER = new ThreadLocal<PageDecoder>() {
+        @Override
+        protected PageDecoder initialValue() {
+            return new PageDecoder(getDecoder());
+        }
+    };
+
+    private static final TiledDecoder TILED_DECODER = new TiledDecoder();
+
+    private static final AdaptiveDecoder ADAPTIVE_DECODER = new AdaptiveDecoder();
+
+    // Stateless, so it is shared by all threads.
+    private static final Decoder MATRIX_DECODER = new Decoder();
+
+    public static String readQRImage(File qrCode) throws IOException {
+        long start = System.nanoTime();
+        LuminanceSource source = ImageLoader.load(qrCode);
+
+        String contents = null;
+        try {
+            Result result = getDecoder().decode(source);
+            contents = result.getText();
+        } catch (NotFoundException e) {
+            QRBillLogger.get().warn("Error 6: {}", e.getMessage());
+        }
+        record(QRBillMetrics.Operation.DECODE, start, contents != null);
+        
+        return contents;
+    }
+
+    /**
+     * Reads the QR code in the image, giving up once the deadline expires. See
+     * {@link DecodeDeadline}. When the pre-screen of the thread's decoder is enabled with
+     * {@link QRDecoder#setPreScreen(boolean)}, images that fail it are rejected without decoding.
+     *
+     * @return The outcome; the text is null unless it was decoded.
+     */
+    public static DecodeResult readQRImage(File qrCode, DecodeDeadline deadline) throws IOException {
+        long start = System.nanoTime();
+        LuminanceSource source = ImageLoader.load(qrCode);
+        return logOutcome(getDecoder().decode(source, deadline), start);
+    }
+
+    /**
+     * Reads the QR code in the image with the strategies that worked best so far for images from
+     * the same source. See {@link AdaptiveDecoder}.
+     *
+     * @param sourceTag The source of the image, such as a scanner model, or null if unknown.
+     * @param deadline The deadline, or null for none.
+     * @return The outcome; the text is null unless it was decoded.
+     */
+    public static DecodeResult readQRImage(File qrCode, String sourceTag, DecodeDeadline deadline) throws IOException {
+        long start = System.nanoTime();
+        LuminanceSource source = ImageLoader.load(qrCode);
+        return logOutcome(ADAPTIVE_DECODER.decode(source, sourceTag, deadline), start);
+    }
+
+    /**
+     * Gets the decoder used by {@link #readQRImage(File, String, DecodeDeadline)}, whose
+     * statistics can be read and exported.
+     */
+    public static AdaptiveDecoder getAdaptiveDecoder() {
+        return ADAPTIVE_DECODER;
+    }
+
+    /**
+     * Estimates whether the image can hold a readable QR code, without decoding it.
+     */
+    public static ImageQuality assessQRImage(File qrCode) throws IOException {
+        return ImageQuality.assess(ImageLoader.load(qrCode));
+    }
+
+    /**
+     * Reads the QR code on a full page scan, looking in the payment part first. See
+     * {@link PageDecoder}.
+     */
+    public static String readQRPage(File scan) throws IOException {
+        long start = System.nanoTime();
+        LuminanceSource source = ImageLoader.load(scan);
+
+        String contents = null;
+        try {
+            Result result = PAGE_DECODER.get().decode(source);
+            contents = result.getText();
+        } catch (NotFoundException e) {
+            QRBillLogger.get().warn("Error 6: {}", e.getMessage());
+        }
+        record(QRBillMetrics.Operation.DECODE, start, contents != null);
+
+        return contents;
+    }
+
+    /**
+     * Reads the QR code on a full page scan, giving up once the deadline expires. When the
+     * pre-screen of the thread's decoder is enabled with {@link QRDecoder#setPreScreen(boolean)},
+     * crops that fail it are skipped, and a page that fails it is rejected without decoding.
+     *
+     * @return The outcome; the text is null unless it was decoded.
+     */
+    public static DecodeResult readQRPage(File scan, DecodeDeadline deadline) throws IOException {
+        long start = System.nanoTime();
+        LuminanceSource source = ImageLoader.load(scan);
+        return logOutcome(PAGE_DECODER.get().decode(source, deadline), start);
+    }
+
+    /**
+     * Logs a failed decode and records the call, which started at the given
+     * {@link System#nanoTime()}, with the installed {@link Metrics}.
+     */
+    private static DecodeResult logOutcome(DecodeResult result, long start) {
+        record(QRBillMetrics.Operation.DECODE, start, getOutcome(result));
+        switch (result.getStatus()) {
+            case NOT_FOUND:
+                QRBillLogger.get().warn("Error 6: No QR code found.");
+                break;
+            case TIMED_OUT:
+                QRBillLogger.get().warn("Error 8: QR decoding timed out.");
+                break;
+            case CANCELLED:
+                QRBillLogger.get().warn("Error 8: QR decoding cancelled.");
+                break;
+            case REJECTED:
+                QRBillLogger.get().warn("Error 9: Image rejected, {}.", result.getQuality());
+                break;
+            default:
+                break;
+        }
+        return result;
+    }
+
+    /**
+     * Records an operation that started at the given {@link System#nanoTime()} with the installed
+     * {@link Metrics}, unless nothing is installed.
+     */
+    private static void record(QRBillMetrics.Operation operation, long start, boolean success) {
+        QRBillMetrics metrics = Metrics.get();
+        if (metrics != QRBillMetrics.NO_OP)
+            metrics.record(operation, System.nanoTime() - start, success);
+    }
+
+    private static void record(QRBillMetrics.Operation operation, long start, QRBillMetrics.Outcome outcome) {
+        QRBillMetrics metrics = Metrics.get();
+        if (metrics != QRBillMetrics.NO_OP)
+            metrics.record(operation, System.nanoTime() - start, outcome);
+    }
+
+    private static QRBillMetrics.Outcome getOutcome(DecodeResult result) {
+        switch (result.getStatus()) {
+            case DECODED:
+                return QRBillMetrics.Outcome.SUCCESS;
+            case TIMED_OUT:
+                return QRBillMetrics.Outcome.TIMED_OUT;
+            case CANCELLED:
+                return QRBillMetrics.Outcome.CANCELLED;
+            default:
+                return QRBillMetrics.Outcome.FAILURE;
+        }
+    }
+
+    /**
+     * Reads the QR codes in a very large image by decoding overlapping tiles in parallel. See
+     * {@link TiledDecoder}.
+     *
+     * @param findAll Whether every QR code is wanted, or only the first Swiss Payments Code.
+     */
+    public static List<String> readQRImageTiled(File qrCode, boolean findAll) throws IOException {
+        long start = System.nanoTime();
+        LuminanceSource source = ImageLoader.load(qrCode, TiledDecoder.IMAGE_BUDGET);
+
+        List<String> contents = new ArrayList<>();
+        for (Result result : TILED_DECODER.decode(source, findAll))
+            contents.add(result.getText());
+        if (contents.isEmpty())
+            QRBillLogger.get().warn("Error 6: No QR code found in any tile.");
+        record(QRBillMetrics.Operation.DECODE, start, !contents.isEmpty());
+
+        return contents;
+    }
+
+    public static List<ScannedQRBill> readAllQRBills(File image) throws IOException {
+        long start = System.nanoTime();
+        return readAllQRBills(ImageLoader.load(image), start);
+    }
+
+    public static List<ScannedQRBill> readAllQRBills(BufferedImage image) {
+        return readAllQRBills(RasterLuminanceSource.create(image), System.nanoTime());
+    }
+
+    /**
+     * Finds every QR code in the image in a single binarization pass, and parses those that pass
+     * the {@link #isSwissPaymentsCode(String)} pre-check as QR bills. Bills that are not valid
+     * are logged and skipped.
+     *
+     * @return The valid bills with their positions. Empty if none were found.
+     */
+    public static List<ScannedQRBill> readAllQRBills(LuminanceSource source) {
+        return readAllQRBills(source, System.nanoTime());
+    }
+
+    /**
+     * Reads every QR bill in the image, and records the call, which started at the given
+     * {@link System#nanoTime()}, with the installed {@link Metrics}.
+     */
+    private static List<ScannedQRBill> readAllQRBills(LuminanceSource source, long start) {
+        List<ScannedQRBill> bills = new ArrayList<>();
+
+        Result[] results;
+        try {
+            results = getDecoder().decodeMultiple(source);
+        } catch (NotFoundException e) {
+            QRBillLogger.get().warn("Error 6: {}", e.getMessage());
+            record(QRBillMetrics.Operation.DECODE, start, false);
+            return bills;
+        }
+
+        for (Result result : results) {
+            String text = result.getText();
+            if (!isSwissPaymentsCode(text))
+                continue;
+            QRBill bill = new QRBill(text);
+            if (bill.isValid())
+                bills.add(new ScannedQRBill(bill, text, result.getResultPoints()));
+            else
+                QRBillLogger.get().warn("Error 7: Invalid QR bill skipped.");
+        }
+        record(QRBillMetrics.Operation.DECODE, start, !bills.isEmpty());
+        return bills;
+    }
+
+    /**
+     * Checks whether a decoded text is a Swiss Payments Code payload, i.e. starts with the
+     * {@link QRBill#QRTYPE_SPC} QR type on a line of its own.
+     */
+    public static boolean isSwissPaymentsCode(String text) {
+        if (text == null || !text.startsWith(QRBill.QRTYPE_SPC))
+            return false;
+        int end = QRBill.QRTYPE_SPC.length();
+        return text.length() > end && (text.charAt(end) == '\n' || text.charAt(end) == '\r');
+    }
+
+    /**
+     * Gets the decoder confined to the calling thread, as used by {@link #readQRImage(File)}.
+     */
+    public static QRDecoder getDecoder() {
+        return DECODER.get();
+    }
+    
+    public static void generateQRCodeImage(String text, int width, int height, String filePath, String embeddedImage) throws WriterException, IOException, NotFoundException {
+        BitMatrix bitMatrix;
+        
+        QRCodeWriter qrCodeWriter = new QRCodeWriter();
+        Map<EncodeHintType, Object> hints = new HashMap<>();
+        hints.put(EncodeHintType.CHARACTER_SET, UTF_8);
+        if (embeddedImage != null)
+            hints.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.M);
+        long start = System.nanoTime();
+        Object event = PipelineEvents.begin();
+        try {
+            bitMatrix = qrCodeWriter.encode(text, BarcodeFormat.QR_CODE, width, height, hints);
+        } catch (WriterException e) {
+            record(QRBillMetrics.Operation.ENCODE, start, false);
+            PipelineEvents.end(event, PipelineEvents.Stage.ENCODE, getPayloadSize(event, text), 0, 0, "QRCodeWriter", "failed");
+            throw e;
+        }
+        record(QRBillMetrics.Operation.ENCODE, start, true);
+        PipelineEvents.end(event, PipelineEvents.Stage.ENCODE, getPayloadSize(event, text), bitMatrix.getWidth(), bitMatrix.getHeight(),
+                "QRCodeWriter", "encoded");
+
+        if (embeddedImage != null)
+            bitMatrix = embedImage(bitMatrix, embeddedImage);
+        writePNG(bitMatrix, filePath);
+    }
+
+    /**
+     * Generates the QR code of the bill at the given size in pixels, like
+     * {@link #generateQRCodeImage(String, int, int, String, String)}, but from
+     * {@link QRBill#getQRCodeBytes()}, so that the payload is encoded to UTF-8 and checked
+     * against the size limit exactly once.
+     *
+     * @param embeddedImage The image to draw in the centre, such as the Swiss cross, or null.
+     */
+    public static void generateQRCodeImage(QRBill bill, int width, int height, String filePath, String embeddedImage) throws QRBill.QRBillException, WriterException, IOException, NotFoundException {
+        BitMatrix bitMatrix = fit(encodeQRBill(bill), width, height);
+        if (embeddedImage != null)
+            bitMatrix = embedImage(bitMatrix, embeddedImage);
+        writePNG(bitMatrix, filePath);
+    }
+
+    /**
+     * Scales a module-exact matrix to fit the given size, with a quiet zone of 4 modules, the
+     * same way {@link QRCodeWriter} does.
+     */
+    static BitMatrix fit(BitMatrix modules, int width, int height) {
+        int n = modules.getWidth();
+        int quietWidth = n + 2 * QRCODEWRITER_QUIET_ZONE;
+        int outputWidth = Math.max(width, quietWidth);
+        int outputHeight = Math.max(height, quietWidth);
+        int multiple = Math.min(outputWidth / quietWidth, outputHeight / quietWidth);
+        int leftPadding = (outputWidth - n * multiple) / 2;
+        int topPadding = (outputHeight - n * multiple) / 2;
+
+        BitMatrix output = new BitMatrix(outputWidth, outputHeight);
+        for (int y = 0; y < n; y++) {
+            for (int x = 0; x < n; x++) {
+                if (modules.get(x, y))
+                    output.setRegion(leftPadding + x * multiple, topPadding + y * multiple, multiple, multiple);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Draws an image, such as the Swiss cross, in the centre of the QR code, scaled to
+     * 12% of its size, and binarizes the result.
+     */
+    private static BitMatrix embedImage(BitMatrix bitMatrix, String embeddedImage) throws IOException, NotFoundException {
+        final float maxRatio = 0.12F;
+        BufferedImage qrImage = MatrixToImageWriter.toBufferedImage(bitMatrix);
+        BufferedImage embImage = ImageIO.read(new File(embeddedImage));
+        
+        float widthRatio = (float) embImage.getWidth() / (float) qrImage.getWidth();
+        float heightRatio = (float) embImage.getHeight() / (float) qrImage.getHeight();
+        
+        if (widthRatio < heightRatio) {
+            if (heightRatio != maxRatio) {
+                int h = (int) (maxRatio * (float) qrImage.getHeight());
+                int w = (int) (((float) h / embImage.getHeight()) * (float) embImage.getWidth());
+                embImage = createScaledBufferedImage(embImage, w, h);
+            }
+        } else {
+            if (widthRatio != maxRatio) {
+                int w = (int) (maxRatio * (float) qrImage.getWidth());
+                int h = (int) (((float) w / embImage.getWidth()) * (float) embImage.getHeight());
+                embImage = createScaledBufferedImage(embImage, w, h);
+            }
+        }
+
+        int deltaWidth = qrImage.getWidth() - embImage.getWidth();
+        int deltaHeight = qrImage.getHeight() - embImage.getHeight();
+
+        BufferedImage combined = new BufferedImage(qrImage.getHeight(), qrImage.getWidth(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = (Graphics2D) combined.getGraphics();
+        g.drawImage(qrImage, 0, 0, null);
+        g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1f));
+        g.drawImage(embImage, (int) Math.round(deltaWidth / 2), (int) Math.round(deltaHeight / 2), null);
+        
+        BlockBinarizer hb = new BlockBinarizer(RasterLuminanceSource.create(combined));
+        return hb.getBlackMatrix();
+    }
+    
+    public static void generateQRCodeImage(String text, double sizeMm, int dpi, String filePath) throws WriterException, IOException {
+        writePNG(renderQRCode(text, sizeMm, dpi), filePath);
+    }
+
+    public static void generateQRCodeImage(QRBill bill, double sizeMm, int dpi, String filePath) throws QRBill.QRBillException, WriterException, IOException {
+        writePNG(renderQRBill(bill, sizeMm, dpi), filePath);
+    }
+
+    private static void writePNG(BitMatrix bitMatrix, String filePath) throws IOException {
+        Object event = PipelineEvents.begin();
+        Path path = FileSystems.getDefault().getPath(filePath);
+        boolean written = false;
+        try {
+            MatrixToImageWriter.writeToPath(bitMatrix, "PNG", path);
+            written = true;
+        } finally {
+            if (event != null)
+                PipelineEvents.end(event, PipelineEvents.Stage.WRITE, written ? path.toFile().length() : 0,
+                        bitMatrix.getWidth(), bitMatrix.getHeight(), "PNG", written ? "written" : "failed");
+        }
+    }
+
+    /**
+     * Renders the text at a physical size and resolution, with a whole number of pixels per
+     * module, the Swiss cross and a quiet zone of {@value #QUIET_ZONE_MM} mm rounded up to whole
+     * modules. The scale is the one closest to the requested size, so the printed symbol may differ
+     * from it by up to half a module.
+     */
+    public static BitMatrix renderQRCode(String text, double sizeMm, int dpi) throws WriterException {
+        return renderQRCode(encodeQRCode(text), sizeMm, dpi);
+    }
+
+    /**
+     * Renders the QR code of the bill, encoding its payload to UTF-8 once. See
+     * {@link #renderQRCode(String, double, int)}.
+     */
+    public static BitMatrix renderQRBill(QRBill bill, double sizeMm, int dpi) throws QRBill.QRBillException, WriterException {
+        return renderQRCode(encodeQRBill(bill), sizeMm, dpi);
+    }
+
+    private static BitMatrix renderQRCode(BitMatrix modules, double sizeMm, int dpi) {
+        Object event = PipelineEvents.begin();
+        int n = modules.getWidth();
+        int scale = Math.max(1, (int) Math.round(sizeMm / MM_PER_INCH * dpi / n));
+        int quietZone = (int) Math.ceil(QUIET_ZONE_MM / MM_PER_INCH * dpi / scale);
+
+        BitMatrix bitMatrix = scaleQRCode(modules, scale, quietZone);
+        for (double[] r : MatrixToVectorWriter.crossRectangles(n, n)) {
+            int left = (int) Math.round((quietZone + r[0]) * scale);
+            int top = (int) Math.round((quietZone + r[1]) * scale);
+            int right = (int) Math.round((quietZone + r[0] + r[2]) * scale);
+            int bottom = (int) Math.round((quietZone + r[1] + r[3]) * scale);
+            for (int y = top; y < bottom; y++) {
+                for (int x = left; x < right; x++) {
+                    if (r[4] == 0) {
+                        bitMatrix.unset(x, y);
+                    } else {
+                        bitMatrix.set(x, y);
+                    }
+                }
+            }
+        }
+        PipelineEvents.end(event, PipelineEvents.Stage.RENDER, 0, bitMatrix.getWidth(), bitMatrix.getHeight(), null, "rendered");
+        return bitMatrix;
+    }
+
+    /**
+     * Expands a module-exact matrix by an integer scale, adding a quiet zone. Each source row is
+     * expanded once, run by run, and then copied into the scaled rows, so no resampling happens.
+     */
+    static BitMatrix scaleQRCode(BitMatrix modules, int scale, int quietZone) {
+        int width = modules.getWidth();
+        int height = modules.getHeight();
+        BitMatrix scaled = new BitMatrix((width + 2 * quietZone) * scale, (height + 2 * quietZone) * scale);
+        BitArray row = new BitArray(scaled.getWidth());
+
+        for (int y = 0; y < height; y++) {
+            row.clear();
+            int x = 0;
+            while (x < width) {
+                if (!modules.get(x, y)) {
+                    x++;
+                    continue;
+                }
+                int start = x;
+                while (x < width && modules.get(x, y))
+                    x++;
+                row.setRange((start + quietZone) * scale, (x + quietZone) * scale);
+            }
+            int top = (y + quietZone) * scale;
+            for (int i = 0; i < scale; i++)
+                scaled.setRow(top + i, row);
+        }
+        return scaled;
+    }
+
+    public static void generateQRCodeSVG(String text, double sizeMm, String filePath) throws WriterException, IOException {
+        BitMatrix bitMatrix = encodeQRCode(text);
+        Writer out = new OutputStreamWriter(new FileOutputStream(filePath), "UTF-8");
+        try {
+            MatrixToVectorWriter.writeSVG(bitMatrix, sizeMm, true, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    public static void generateQRCodePDF(String text, double sizeMm, String filePath) throws WriterException, IOException {
+        BitMatrix bitMatrix = encodeQRCode(text);
+        OutputStream out = new FileOutputStream(filePath);
+        try {
+            MatrixToVectorWriter.writePDF(bitMatrix, sizeMm, true, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Encodes the text as a module-exact matrix: one bit per module, without a quiet zone and at
+     * error correction level M, as required for the Swiss cross overlay. The text is encoded as
+     * UTF-8 with a UTF-8 ECI header. Swiss Payments Code payloads, which are always encoded in byte
+     * mode, go through the specialised {@link QRBillEncoder}; other text through ZXing's general
+     * purpose writer.
+     */
+    public static BitMatrix encodeQRCode(String text) throws WriterException {
+        long start = System.nanoTime();
+        Object event = PipelineEvents.begin();
+        boolean spc = isSwissPaymentsCode(text);
+        BitMatrix modules = null;
+        try {
+            if (spc) {
+                modules = QRBillEncoder.encode(text);
+            } else {
+                Map<EncodeHintType, Object> hints = new HashMap<>();
+                hints.put(EncodeHintType.CHARACTER_SET, UTF_8);
+                hints.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.M);
+                hints.put(EncodeHintType.MARGIN, 0);
+                modules = new QRCodeWriter().encode(text, BarcodeFormat.QR_CODE, 0, 0, hints);
+            }
+            return modules;
+        } finally {
+            record(QRBillMetrics.Operation.ENCODE, start, modules != null);
+            endEncode(event, getPayloadSize(event, text), modules, spc ? "QRBillEncoder" : "QRCodeWriter");
+        }
+    }
+
+    /**
+     * Gets the size of the text in UTF-8 bytes for a {@link PipelineEvents} event, or 0 without
+     * encoding it when the event is not being recorded.
+     */
+    private static int getPayloadSize(Object event, String text) {
+        return event == null ? 0 : text.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static void endEncode(Object event, int payloadSize, BitMatrix modules, String encoder) {
+        PipelineEvents.end(event, PipelineEvents.Stage.ENCODE, payloadSize, modules == null ? 0 : modules.getWidth(),
+                modules == null ? 0 : modules.getHeight(), encoder, modules == null ? "failed" : "encoded");
+    }
+
+    /**
+     * Checks that the QR code generated for the text decodes back to exactly the same text, without
+     * writing and scanning an image. The module-exact matrix is decoded directly, so no detection
+     * or sampling is needed; the Swiss cross is cut in first, so that the error correction has to
+     * recover the modules it covers, as it does on a printed bill.
+     *
+     * @param text The payload, as returned by {@link QRBill#getQRCode()}.
+     * @return True if the round trip reproduces the payload character for character.
+     */
+    public static boolean verifyQRCode(String text) throws WriterException {
+        return verifyQRCode(encodeQRCode(text), text);
+    }
+
+    /**
+     * Checks that a module-exact matrix, as returned by {@link #encodeQRCode(String)}, decodes to
+     * the given text with the Swiss cross cut in.
+     */
+    public static boolean verifyQRCode(BitMatrix modules, String text) {
+        return text.equals(decodeQRCode(modules));
+    }
+
+    /**
+     * Generates the QR code of the bill and checks its round trip in memory, comparing the UTF-8
+     * bytes it decodes to with those of {@link QRBill#getQRCodeBytes()}. See
+     * {@link #verifyQRCode(String)}.
+     */
+    public static boolean verifyQRBill(QRBill bill) throws QRBill.QRBillException, WriterException {
+        byte[] bytes = bill.getQRCodeBytes();
+        String decoded = decodeQRCode(QRBillEncoder.encode(bytes));
+        return decoded != null && Arrays.equals(bytes, decoded.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a module-exact matrix with the Swiss cross cut in.
+     *
+     * @return The text, or null if it does not decode.
+     */
+    private static String decodeQRCode(BitMatrix modules) {
+        try {
+            DecoderResult result = MATRIX_DECODER.decode(withSwissCross(modules));
+            return result.getText();
+        } catch (ChecksumException | FormatException e) {
+            QRBillLogger.get().warn("Error 10: Generated QR code does not decode - {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Copies a module-exact matrix with the Swiss cross drawn over it, each module taking the colour
+     * of the cross at its centre.
+     */
+    static BitMatrix withSwissCross(BitMatrix modules) {
+        int n = modules.getWidth();
+        BitMatrix out = modules.clone();
+        for (double[] r : MatrixToVectorWriter.crossRectangles(n, modules.getHeight())) {
+            int left = (int) Math.round(r[0]);
+            int top = (int) Math.round(r[1]);
+            int right = (int) Math.round(r[0] + r[2]);
+            int bottom = (int) Math.round(r[1] + r[3]);
+            for (int y = top; y < bottom; y++) {
+                for (int x = left; x < right; x++) {
+                    if (r[4] == 0) {
+                        out.unset(x, y);
+                    } else {
+                        out.set(x, y);
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Encodes the QR code of the bill from {@link QRBill#getQRCodeBytes()}, so that the payload is
+     * encoded to UTF-8 and checked against the size limit exactly once.
+     */
+    public static BitMatrix encodeQRBill(QRBill bill) throws QRBill.QRBillException, WriterException {
+        long start = System.nanoTime();
+        Object event = PipelineEvents.begin();
+        byte[] payload = null;
+        BitMatrix modules = null;
+        try {
+            payload = bill.getQRCodeBytes();
+            modules = QRBillEncoder.encode(payload);
+            return modules;
+        } finally {
+            record(QRBillMetrics.Operation.ENCODE, start, modules != null);
+            endEncode(event, payload == null ? 0 : payload.length, modules, "QRBillEncoder");
+        }
+    }
+
+    private static BufferedImage createScaledBufferedImage (BufferedImage embeddedImage, int width, int height) {
+        Image tmp = embeddedImage.getScaledInstance(width, height, Image.SCALE_SMOOTH);
+        BufferedImage dimg = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+
+        Graphics2D g2d = dimg.createGraphics();
+        g2d.drawImage(tmp, 0, 0, null);
+        g2d.dispose();
+        
+        return dimg;
+    }
+    
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018 Gaddo F Benedetti
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.gfb.qrbill.zxing;
+
+import com.gfb.qrbill.QRBill;
+import com.gfb.qrbill.spi.PipelineEvents;
+import com.google.zxing.WriterException;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the hot paths do not allocate more than a fixed number of bytes per call, using the
+ * per-thread allocation counter of the HotSpot {@link com.sun.management.ThreadMXBean}. Each path
+ * is warmed up first, so that the JIT compiler has done its work before anything is measured.
+ *
+ * <p>Each budget may be overridden with a system property, e.g.
+ * {@code -Dqrbill.budget.parse=8192}, and the number of warm-up calls with
+ * {@code qrbill.budget.warmup}.</p>
+ */
+public class AllocationTests {
+
+    // The file path of the input QR Code file
+    private static final String     TEST_INVOICE    = "res/test_qrs/Invoice1.jpg";
+
+    private static final int        WARMUP_CALLS    = Integer.getInteger("qrbill.budget.warmup", 5000);
+    private static final int        MEASURED_CALLS  = 1000;
+
+    // Default budgets in bytes per call, with some headroom over the measured allocation.
+    private static final long       PARSE_BUDGET        = budget("parse", 8 * 1024);
+    private static final long       SERIALIZE_BUDGET    = budget("serialize", 12 * 1024);
+    private static final long       VALIDATE_BUDGET     = budget("validate", 16 * 1024);
+    private static final long       SETTER_BUDGET       = budget("setter", 64);
+    private static final long       ESTIMATE_BUDGET     = budget("estimate", 4 * 1024);
+    private static final long       ENCODE_BUDGET       = budget("encode", 24 * 1024);
+    private static final long       RENDER_BUDGET       = budget("render", 96 * 1024);
+    private static final long       EVENT_BUDGET        = budget("event", 0);
+
+    private static com.sun.management.ThreadMXBean threads;
+    private static String payload;
+    // Keeps the results alive, so that the calls cannot be optimised away.
+    private static volatile Object sink;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        payload = ZXing.readQRImage(new File(TEST_INVOICE));
+    }
+
+    /**
+     * A call on a hot path, repeated by the measurement.
+     */
+    private interface Call {
+        Object run() throws Exception;
+    }
+
+    @Test
+    public void parseBudget() throws Exception {
+        check("parse", PARSE_BUDGET, new Call() {
+            public Object run() {
+                return new QRBill(payload);
+            }
+        });
+    }
+
+    @Test
+    public void serializeBudget() throws Exception {
+        final QRBill bill = new QRBill(payload);
+        check("serialize", SERIALIZE_BUDGET, new Call() {
+            public Object run() throws QRBill.QRBillException {
+                return bill.getQRCode();
+            }
+        });
+    }
+
+    @Test
+    public void validateBudget() throws Exception {
+        final QRBill bill = new QRBill(payload);
+        check("validate", VALIDATE_BUDGET, new Call() {
+            public Object run() {
+                return bill.isValid();
+            }
+        });
+    }
+
+    @Test
+    public void setterBudget() throws Exception {
+        final QRBill bill = new QRBill(payload);
+        final String iban = bill.getIBAN();
+        check("setter", SETTER_BUDGET, new Call() {
+            public Object run() {
+                return bill.setIBAN(iban);
+            }
+        });
+    }
+
+    @Test
+    public void estimateBudget() throws Exception {
+        final QRBill bill = new QRBill(payload);
+        check("estimate", ESTIMATE_BUDGET, new Call() {
+            public Object run() {
+                return bill.estimateSymbol();
+            }
+        });
+    }
+
+    @Test
+    public void encodeBudget() throws Exception {
+        final QRBill bill = new QRBill(payload);
+        check("encode", ENCODE_BUDGET, new Call() {
+            public Object run() throws QRBill.QRBillException, WriterException {
+                return ZXing.encodeQRBill(bill);
+            }
+        });
+    }
+
+    @Test
+    public void renderBudget() throws Exception {
+        final QRBill bill = new QRBill(payload);
+        check("render", RENDER_BUDGET, new Call() {
+            public Object run() throws QRBill.QRBillException, WriterException {
+                return ZXing.renderQRBill(bill, 46.0, 300);
+            }
+        });
+    }
+
+    @Test
+    public void eventBudget() throws Exception {
+        // Without a recording, a stage costs a flag check and nothing is allocated.
+        check("event", EVENT_BUDGET, new Call() {
+            public Object run() {
+                Object event = PipelineEvents.begin();
+                PipelineEvents.end(event, PipelineEvents.Stage.DECODE, 0, 0, 0, null, "decoded");
+                return event;
+            }
+        });
+    }
+
+    /**
+     * Warms the call up, then measures the bytes it allocates on this thread and fails when the
+     * average per call exceeds the budget.
+     */
+    private static void check(String name, long budget, Call call) throws Exception {
+        for (int i = 0; i < WARMUP_CALLS; i++)
+            sink = call.run();
+
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < MEASURED_CALLS; i++)
+            sink = call.run();
+        long perCall = (threads.getThreadAllocatedBytes(id) - before) / MEASURED_CALLS;
+
+        QRBillHelper.logMessage("Allocation " + name + ": " + perCall + " of " + budget + " bytes per call.");
+        assertTrue(name + " allocates " + perCall + " bytes per call, over its budget of " + budget, perCall <= budget);
+    }
+
+    private static long budget(String name, long defaultBytes) {
+        return Long.getLong("qrbill.budget." + name, defaultBytes);
+    }
+}
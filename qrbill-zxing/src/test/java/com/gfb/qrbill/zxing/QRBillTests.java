@@ -0,0 +1,842 @@
+package com.gfb.qrbill.zxing;
+
+import com.gfb.qrbill.LongAdderMetrics;
+import com.gfb.qrbill.Metrics;
+import com.gfb.qrbill.OperationStats;
+import com.gfb.qrbill.QRBill;
+import com.gfb.qrbill.QRBillLogger;
+import com.gfb.qrbill.QRSymbolEstimate;
+import com.gfb.qrbill.testdata.ScanDegradation;
+import com.gfb.qrbill.testdata.SyntheticBills;
+
+import static org.junit.Assert.assertTrue;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Result;
+import com.google.zxing.WriterException;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeWriter;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.imageio.ImageIO;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+
+public class QRBillTests {
+
+    // The file path of the input QR Code file
+    private static final String     TEST_INVOICE    = "res/test_qrs/Invoice#.jpg";
+
+    // The file path of the output QR Code file
+    private static final String     COPY_INVOICE    = "res/test_qrs/Invoice#_new.jpg";
+
+    // Which of the three input files to be processed (1 - 4). If any other value is used,
+    // all will be processed in turn.
+    private static final int        QR_INDEX        = 0;
+
+    // The width & height of the output QR Code file
+    private static final int        QR_LENGTH       = 300;
+
+    // Whether the raw QR code is also printed after each reading
+    private static final boolean    SHOW_OUTPUTCODE = false;
+
+    // The version of the QR code bill, if generated from data
+    private static final Float      QR_VERSION      = 2.0F;
+
+    @Test
+    public void mainTests() {
+        int start = 0;
+        int end = 4;
+        if (QR_INDEX > start && QR_INDEX <= end) {
+            start = QR_INDEX - 1;
+            end = QR_INDEX;
+        }
+
+        for (int i = start + 1; i < end + 1; i++) {
+            String testInvoiceFile = TEST_INVOICE.replace("#", String.valueOf(i));
+            String copyInvoiceFile = COPY_INVOICE.replace("#", String.valueOf(i));
+            String[] responses = new String[3];
+            QRBillHelper.logMessage("Test Subject: " + testInvoiceFile + "\n");
+
+            File copyFile = new File(copyInvoiceFile);
+            if (copyFile.exists())
+                copyFile.delete();
+            QRBill invoice = null;
+            if (new File(testInvoiceFile).exists()) {
+                responses[0] = QRBillHelper.readQR (testInvoiceFile, copyInvoiceFile,"First Scan Error", SHOW_OUTPUTCODE);
+                if (responses[0] != null) {
+                    invoice = QRBillHelper.serialize (responses[0], "Serialize Error", SHOW_OUTPUTCODE);
+                }
+            } else {
+                invoice = QRBillHelper.generate ("Failed to generate QR code", QR_VERSION);
+            }
+
+            if (invoice != null) {
+                try {
+                    responses[1] = invoice.getQRCode();
+                    boolean verified = ZXing.verifyQRCode(responses[1]);
+                    QRBillHelper.logMessage("In-memory Verify: " + verified);
+                    assertTrue("In-memory verify", verified);
+
+                    if (QRBillHelper.writeQR(copyInvoiceFile, invoice, "QR Generation Error", QR_LENGTH, SHOW_OUTPUTCODE)) {
+                        responses[2] = QRBillHelper.readQR (copyInvoiceFile, copyInvoiceFile, "Second Scan Error", SHOW_OUTPUTCODE);
+                    }
+                } catch (QRBill.QRBillException e) {
+                    QRBillLogger.get().warn("Malformed QR Code.");
+                } catch (WriterException e) {
+                    QRBillLogger.get().warn("QR Generation Error.");
+                }
+
+                QRBillHelper.showAlternitiveSchema(invoice);
+            }
+
+            QRBillHelper.showSummary(responses);
+        }
+    }
+
+    @Test
+    public void encoderTests() throws Exception {
+        Map<EncodeHintType, Object> hints = new HashMap<>();
+        hints.put(EncodeHintType.CHARACTER_SET, "UTF-8");
+        hints.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.M);
+        hints.put(EncodeHintType.MARGIN, 0);
+
+        for (int i = 1; i < 5; i++) {
+            String payload = ZXing.readQRImage(new File(TEST_INVOICE.replace("#", String.valueOf(i))));
+            // Grow the payload through several versions, including those with version information.
+            for (String text = payload; text.length() < 1000; text += payload.substring(0, 97)) {
+                BitMatrix expected = new QRCodeWriter().encode(text, BarcodeFormat.QR_CODE, 0, 0, hints);
+                assertTrue("Encoder mismatch at " + text.length() + " characters",
+                        expected.equals(QRBillEncoder.encode(text)));
+                QRSymbolEstimate estimate = QRSymbolEstimate.forLength(text.getBytes("UTF-8").length);
+                assertTrue("Estimate mismatch at " + text.length() + " characters",
+                        estimate.getModuleCount() == expected.getWidth());
+            }
+        }
+        QRBillHelper.logMessage("Encoder MATCH: true");
+        QRBillHelper.logMessage("Estimate: " + new QRBill(ZXing.readQRImage(new File(TEST_INVOICE.replace("#", "1")))).estimateSymbol());
+    }
+
+    @Test
+    public void syntheticTests() throws Exception {
+        File file = File.createTempFile("bills", ".gz");
+        try {
+            new SyntheticBills(42).write(file, 500);
+            SyntheticBills expected = new SyntheticBills(42);
+            SyntheticBills.Reader reader = new SyntheticBills.Reader(file);
+            int valid = 0;
+            int rejected = 0;
+            try {
+                for (SyntheticBills.Sample sample = reader.next(); sample != null; sample = reader.next()) {
+                    assertTrue("Sample file does not match its seed", sample.getPayload().equals(expected.next().getPayload()));
+                    QRBill bill = new QRBill(sample.getPayload());
+                    if (sample.isValid()) {
+                        assertTrue("Synthetic bill does not round trip: " + sample.getPayload(),
+                                bill.isValid() && bill.toString().equals(sample.getPayload()));
+                        valid++;
+                    } else if (!bill.isValid()) {
+                        rejected++;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            QRBillHelper.logMessage("Synthetic bills: " + valid + " valid, " + rejected + " of " + (500 - valid) + " broken ones rejected");
+            assertTrue("Broken samples rejected", rejected == 500 - valid);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void metricsTests() throws Exception {
+        LongAdderMetrics metrics = new LongAdderMetrics();
+        Metrics.set(metrics);
+        try {
+            SyntheticBills bills = new SyntheticBills(7);
+            int parsed = 0;
+            for (int i = 0; i < 50; i++) {
+                new QRBill(bills.next().getPayload()).isValid();
+                parsed++;
+            }
+            QRBill bill = bills.nextBill();
+            ZXing.encodeQRBill(bill);
+            ZXing.encodeQRCode("Not a QR bill");
+            long empty = metrics.getErrorCounts().containsKey(1) ? metrics.getErrorCounts().get(1) : 0;
+            new QRBill("");
+
+            assertTrue("Parse count", metrics.getParse().getCount() == parsed + 1);
+            assertTrue("Validate count", metrics.getValidate().getCount() == parsed);
+            assertTrue("Encode count", metrics.getEncode().getCount() == 2 && metrics.getEncode().getFailures() == 0);
+            assertTrue("Empty input error", metrics.getErrorCounts().get(1) == empty + 1);
+            assertTrue("Percentiles", metrics.getParse().getP50Micros() <= metrics.getParse().getP99Micros()
+                    && metrics.getParse().getP99Micros() <= metrics.getParse().getMaxMicros());
+
+            // Reading every bill on an image, and reading it in tiles, are decodes too.
+            File image = new File(TEST_INVOICE.replace("#", "1"));
+            assertTrue("Bill found", ZXing.readAllQRBills(image).size() == 1 && ZXing.readQRImageTiled(image, false).size() == 1);
+            assertTrue("Decode count", metrics.getDecode().getCount() == 2 && metrics.getDecode().getFailures() == 0);
+            metrics.register();
+            try {
+                Object count = ManagementFactory.getPlatformMBeanServer().getAttribute(
+                        new ObjectName(LongAdderMetrics.OBJECT_NAME), "Parse");
+                assertTrue("JMX view", ((CompositeData) count).get("count").equals(metrics.getParse().getCount()));
+            } finally {
+                metrics.unregister();
+            }
+            QRBillHelper.logMessage("Metrics: parse " + metrics.getParse() + ", errors " + metrics.getErrorCounts());
+        } finally {
+            Metrics.set(null);
+        }
+    }
+
+    @Test
+    public void eventTests() throws Exception {
+        Assume.assumeTrue("JFR not available", FlightRecorder.isAvailable());
+        File image = new File(TEST_INVOICE.replace("#", "1"));
+        File dump = File.createTempFile("stages", ".jfr");
+        File copy = File.createTempFile("stages", ".png");
+        try {
+            Recording recording = new Recording();
+            recording.enable("com.gfb.qrbill.Stage").withThreshold(Duration.ZERO);
+            recording.start();
+            String text = ZXing.readQRImage(image);
+            new QRBill(text).isValid();
+            ZXing.generateQRCodeImage(text, 46, 300, copy.getPath());
+            ZXing.readAllQRBills(image);
+            recording.stop();
+            recording.dump(dump.toPath());
+            recording.close();
+
+            Set<String> stages = new TreeSet<>();
+            Set<String> strategies = new TreeSet<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(dump.toPath())) {
+                stages.add(event.getString("stage"));
+                strategies.add(event.getString("stage") + " " + event.getString("strategy"));
+            }
+            assertTrue("No multiple decode event in " + strategies, strategies.contains("DECODE multiple"));
+            for (String stage : new String[] { "LOAD", "BINARIZE", "DETECT", "DECODE", "PARSE", "VALIDATE", "ENCODE", "RENDER", "WRITE" })
+                assertTrue("No " + stage + " event in " + stages, stages.contains(stage));
+            QRBillHelper.logMessage("Stage events: " + stages);
+        } finally {
+            dump.delete();
+            copy.delete();
+        }
+    }
+
+    @Test
+    public void loggerTests() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        QRBillLogger logger = new QRBillLogger(new PrintStream(bytes, true, "UTF-8"), QRBillLogger.Level.INFO, 8);
+        try {
+            final int[] formatted = new int[1];
+            Object counted = new Object() {
+                @Override
+                public String toString() {
+                    formatted[0]++;
+                    return "counted";
+                }
+            };
+            logger.debug("Hidden {}", counted);
+            logger.warn("Error {}: {}", 6, counted);
+            logger.info("Literal {}");
+            logger.flush();
+            String[] lines = bytes.toString("UTF-8").split("\n");
+            assertTrue("Lazy formatting", formatted[0] == 1 && lines.length == 2);
+            assertTrue("Format", lines[0].equals("[QR] Error 6: counted") && lines[1].equals("[QR] Literal {}"));
+
+            bytes.reset();
+            int logged = 20000;
+            for (int i = 0; i < logged; i++)
+                logger.info("Message {}", i);
+            logger.flush();
+            int written = 0;
+            for (String line : bytes.toString("UTF-8").split("\n")) {
+                if (line.startsWith("[QR] Message "))
+                    written++;
+            }
+            assertTrue("Dropped messages are counted", written + logger.getDroppedCount() == logged);
+            QRBillHelper.logMessage("Logger: " + written + " written, " + logger.getDroppedCount() + " dropped of " + logged);
+        } finally {
+            logger.close();
+        }
+    }
+
+    @Test
+    public void vectorTests() throws Exception {
+        String payload = new SyntheticBills(3, 0).nextBill().getQRCode();
+        BitMatrix modules = ZXing.encodeQRCode(payload);
+        int n = modules.getWidth();
+
+        StringWriter svg = new StringWriter();
+        MatrixToVectorWriter.writeSVG(modules, 46, true, svg);
+        assertTrue("SVG module count", svg.toString().contains("viewBox=\"0 0 " + n + " " + n + "\""));
+
+        // Rasterize the SVG at 8 pixels per module with a 4 module quiet zone, and scan it.
+        int scale = 8;
+        BufferedImage image = new BufferedImage((n + 8) * scale, (n + 8) * scale, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.translate(4 * scale, 4 * scale);
+        g.scale(scale, scale);
+        g.setColor(Color.BLACK);
+        Matcher path = Pattern.compile("M(\\d+) (\\d+)h(\\d+)v(\\d+)h-\\d+z").matcher(svg.toString());
+        while (path.find())
+            g.fill(new Rectangle2D.Double(Integer.parseInt(path.group(1)), Integer.parseInt(path.group(2)),
+                    Integer.parseInt(path.group(3)), Integer.parseInt(path.group(4))));
+        Matcher rect = Pattern.compile("<rect x=\"([\\d.]+)\" y=\"([\\d.]+)\" width=\"([\\d.]+)\" height=\"([\\d.]+)\" fill=\"(#\\w+)\"/>")
+                .matcher(svg.toString());
+        int crossRectangles = 0;
+        while (rect.find()) {
+            g.setColor(rect.group(5).equals("#fff") ? Color.WHITE : Color.BLACK);
+            g.fill(new Rectangle2D.Double(Double.parseDouble(rect.group(1)), Double.parseDouble(rect.group(2)),
+                    Double.parseDouble(rect.group(3)), Double.parseDouble(rect.group(4))));
+            crossRectangles++;
+        }
+        g.dispose();
+        assertTrue("SVG Swiss cross", crossRectangles == MatrixToVectorWriter.crossRectangles(n, n).length);
+        assertTrue("SVG decodes", payload.equals(new QRDecoder().decode(RasterLuminanceSource.create(image)).getText()));
+
+        // The PDF rectangles, without the cross, cover exactly the dark modules.
+        BitMatrix painted = new BitMatrix(n);
+        Matcher re = Pattern.compile("(\\d+) (\\d+) (\\d+) (\\d+) re\n").matcher(MatrixToVectorWriter.toPDFContentStream(modules, 46, false));
+        while (re.find())
+            painted.setRegion(Integer.parseInt(re.group(1)), Integer.parseInt(re.group(2)),
+                    Integer.parseInt(re.group(3)), Integer.parseInt(re.group(4)));
+        assertTrue("PDF modules", painted.equals(modules));
+        QRBillHelper.logMessage("Vector output: " + n + " modules, decodes true");
+    }
+
+    @Test
+    public void renderTests() throws Exception {
+        String payload = new SyntheticBills(4, 0).nextBill().getQRCode();
+        BitMatrix modules = ZXing.encodeQRCode(payload);
+        int n = modules.getWidth();
+        for (int dpi : new int[] { 150, 300, 600 }) {
+            int scale = (int) Math.round(46 / 25.4 * dpi / n);
+            int quietZone = (int) Math.ceil(5 / 25.4 * dpi / scale);
+            BitMatrix scaled = ZXing.scaleQRCode(modules, scale, quietZone);
+            assertTrue("Scaled size at " + dpi + " dpi", scaled.getWidth() == (n + 2 * quietZone) * scale);
+            for (int y = 0; y < scaled.getHeight(); y++) {
+                for (int x = 0; x < scaled.getWidth(); x++) {
+                    int mx = x / scale - quietZone;
+                    int my = y / scale - quietZone;
+                    boolean dark = mx >= 0 && my >= 0 && mx < n && my < n && modules.get(mx, my);
+                    assertTrue("Pixel " + x + "," + y + " at " + dpi + " dpi", scaled.get(x, y) == dark);
+                }
+            }
+
+            // The rendered code only differs from the scaled one by the Swiss cross in its centre.
+            BitMatrix rendered = ZXing.renderQRCode(payload, 46, dpi);
+            int centre = (quietZone * 2 + n) * scale / 2;
+            assertTrue("Rendered size at " + dpi + " dpi", rendered.getWidth() == scaled.getWidth());
+            assertTrue("Swiss cross at " + dpi + " dpi", !rendered.get(centre, centre));
+            int finder = (quietZone + 7) * scale;
+            for (int y = 0; y < finder; y++) {
+                for (int x = 0; x < finder; x++)
+                    assertTrue("Finder pattern at " + dpi + " dpi", rendered.get(x, y) == scaled.get(x, y));
+            }
+        }
+        QRBillHelper.logMessage("Rendering: module size is the exact integer scale");
+    }
+
+    @Test
+    public void tierTests() throws Exception {
+        QRDecoder decoder = new QRDecoder();
+        int decoded = 0;
+        for (int i = 1; i < 5; i++) {
+            LuminanceSource source = ImageLoader.load(new File(TEST_INVOICE.replace("#", String.valueOf(i))));
+            Result result = decoder.decode(source);
+            assertTrue("Invoice " + i + " is a QR bill", ZXing.isSwissPaymentsCode(result.getText()));
+            assertTrue("Decoding tier recorded", decoder.getLastTier() != null);
+            decoded++;
+        }
+        assertTrue("Tier counts", decoder.getTierCount(QRDecoder.Tier.FAST) + decoder.getTierCount(QRDecoder.Tier.THOROUGH) == decoded);
+
+        BufferedImage blank = new BufferedImage(400, 400, BufferedImage.TYPE_BYTE_GRAY);
+        LuminanceSource source = RasterLuminanceSource.create(blank);
+        assertTrue("Blank image on the fast tier", decoder.decode(source, QRDecoder.Tier.FAST) == null);
+        assertTrue("Blank image on every tier", decoder.decode(source, (DecodeDeadline) null).getStatus() == DecodeResult.Status.NOT_FOUND);
+        assertTrue("Failure counted", decoder.getFailureCount() == 1 && decoder.getLastTier() == null);
+        QRBillHelper.logMessage("Tiers: " + decoder.getTierCount(QRDecoder.Tier.FAST) + " fast, "
+                + decoder.getTierCount(QRDecoder.Tier.THOROUGH) + " thorough");
+    }
+
+    @Test
+    public void pageTests() throws Exception {
+        QRBill bill = new SyntheticBills(7, 0).nextBill();
+        BufferedImage page = new BufferedImage(2480, 3508, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = page.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, page.getWidth(), page.getHeight());
+        g.drawImage(ScanDegradation.NONE.apply(bill, new Random(7)), 67 * 300 * 10 / 254, 209 * 300 * 10 / 254, null);
+        g.dispose();
+
+        PageDecoder decoder = new PageDecoder();
+        DecodeResult result = decoder.decode(RasterLuminanceSource.create(page), null);
+        assertTrue("Bill on the page", result.isDecoded() && result.getResult().getText().equals(bill.getQRCode()));
+        assertTrue("Decoded in the payment part", decoder.getLastStage() == PageDecoder.Stage.PYRAMID);
+
+        // A blank page goes through every stage, but is a single failure of the decoder.
+        BufferedImage blank = new BufferedImage(2480, 3508, BufferedImage.TYPE_BYTE_GRAY);
+        result = decoder.decode(RasterLuminanceSource.create(blank), null);
+        assertTrue("Blank page", result.getStatus() == DecodeResult.Status.NOT_FOUND && decoder.getLastStage() == null);
+        assertTrue("Failure counted once", decoder.getDecoder().getFailureCount() == 1);
+        QRBillHelper.logMessage("Page: decoded in the payment part, blank page counted once");
+    }
+
+    @Test
+    public void multipleTests() throws Exception {
+        SyntheticBills bills = new SyntheticBills(31, 0);
+        QRBill left = bills.nextBill();
+        QRBill right = bills.nextBill();
+        BufferedImage leftScan = ScanDegradation.NONE.apply(left, new Random(31));
+        BufferedImage rightScan = ScanDegradation.NONE.apply(right, new Random(31));
+        BufferedImage image = new BufferedImage(leftScan.getWidth() * 3, leftScan.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.drawImage(leftScan, 0, 0, null);
+        g.drawImage(rightScan, leftScan.getWidth() * 2, 0, null);
+        BitMatrix other = ZXing.renderQRCode("https://www.six-group.com/", 46, 300);
+        for (int y = 0; y < other.getHeight(); y++) {
+            for (int x = 0; x < other.getWidth(); x++) {
+                if (other.get(x, y))
+                    image.getRaster().setSample(leftScan.getWidth() + x, y, 0, 0);
+            }
+        }
+        g.dispose();
+
+        // Both bills are found in one pass, and the QR code that is not a bill is left out.
+        List<ScannedQRBill> scanned = ZXing.readAllQRBills(image);
+        assertTrue("Two bills", scanned.size() == 2);
+        for (ScannedQRBill bill : scanned) {
+            boolean isLeft = bill.getBounds()[0] < leftScan.getWidth();
+            assertTrue("Bill position", bill.getText().equals((isLeft ? left : right).getQRCode()));
+            assertTrue("Bill parsed", bill.getBill().getQRCode().equals(bill.getText()));
+        }
+
+        // A Swiss Payments Code symbol that is not a valid bill is skipped.
+        BitMatrix malformed = ZXing.renderQRCode("SPC\n0200\n1\nCH0000000000000000000\nS", 46, 300);
+        BufferedImage malformedImage = new BufferedImage(malformed.getWidth(), malformed.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < malformed.getHeight(); y++) {
+            for (int x = 0; x < malformed.getWidth(); x++)
+                malformedImage.getRaster().setSample(x, y, 0, malformed.get(x, y) ? 0 : 255);
+        }
+        assertTrue("Malformed bill skipped", ZXing.readAllQRBills(malformedImage).isEmpty());
+        QRBillHelper.logMessage("Multiple: " + scanned.size() + " bills on one image");
+    }
+
+    @Test
+    public void tiledTests() throws Exception {
+        QRBill bill = new SyntheticBills(30, 0).nextBill();
+        BufferedImage scan = ScanDegradation.NONE.apply(bill, new Random(30));
+        int w = scan.getWidth();
+        BufferedImage image = new BufferedImage(w * 4, scan.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.drawImage(scan, w / 2, 0, null);
+        g.drawImage(scan, w * 5 / 2, 0, null);
+        g.dispose();
+
+        // Each copy lies wholly within two tiles. Both copies are found, each of them once.
+        TiledDecoder tiled = new TiledDecoder(new ForkJoinPool(2), w * 2, w * 3 / 2, Long.MAX_VALUE);
+        List<Result> results = tiled.decode(RasterLuminanceSource.create(image), true);
+        assertTrue("Two copies", results.size() == 2);
+        float left = results.get(0).getResultPoints()[0].getX();
+        float right = results.get(1).getResultPoints()[0].getX();
+        assertTrue("Copies apart", Math.abs(left - right) > w);
+        for (Result result : results)
+            assertTrue("Copy text", result.getText().equals(bill.getQRCode()));
+
+        List<Result> first = tiled.decode(RasterLuminanceSource.create(image), false);
+        assertTrue("First bill only", first.size() == 1);
+        QRBillHelper.logMessage("Tiled: " + results.size() + " copies of one bill");
+    }
+
+    @Test
+    public void loaderTests() throws Exception {
+        int width = 301;
+        int height = 203;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        Random random = new Random(32);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++)
+                image.setRGB(x, y, random.nextInt(0x1000000));
+        }
+        File file = File.createTempFile("qrbill", ".png");
+        file.deleteOnExit();
+        ImageIO.write(image, "png", file);
+
+        // Within budget, the luminance is the same as ZXing's own.
+        byte[] expected = new BufferedImageLuminanceSource(ImageIO.read(file)).getMatrix();
+        LuminanceSource full = ImageLoader.load(file);
+        assertTrue("Full resolution", full.getWidth() == width && full.getHeight() == height);
+        assertTrue("Same luminance", Arrays.equals(full.getMatrix(), expected));
+
+        // Over budget, every other pixel of every other row is read.
+        LuminanceSource half = ImageLoader.load(file, (long) width * height * 4 / 2);
+        int w = (width + 1) / 2;
+        int h = (height + 1) / 2;
+        assertTrue("Subsampled", half.getWidth() == w && half.getHeight() == h);
+        byte[] subsampled = half.getMatrix();
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++)
+                assertTrue("Subsampled pixel " + x + "," + y, subsampled[y * w + x] == expected[2 * y * width + 2 * x]);
+        }
+        QRBillHelper.logMessage("Loader: " + width + "x" + height + " subsampled to " + w + "x" + h);
+    }
+
+    @Test
+    public void binarizerTests() throws Exception {
+        int compared = 0;
+        for (int i = 1; i < 5; i++) {
+            LuminanceSource source = ImageLoader.load(new File(TEST_INVOICE.replace("#", String.valueOf(i))));
+            assertTrue("Invoice " + i, sameBlackMatrix(source));
+            compared++;
+        }
+
+        SyntheticBills bills = new SyntheticBills(33, 0);
+        Random random = new Random(33);
+        for (int i = 0; i < 8; i++) {
+            BufferedImage scan = ScanDegradation.random(random).apply(bills.nextBill(), random);
+            assertTrue("Scan " + i, sameBlackMatrix(RasterLuminanceSource.create(scan)));
+            compared++;
+        }
+
+        // Sizes that are not a multiple of the block size, including some below the 40 pixel
+        // minimum, where both fall back to the global histogram.
+        int[][] sizes = { { 37, 29 }, { 39, 40 }, { 41, 39 }, { 53, 41 }, { 101, 77 }, { 333, 259 }, { 1001, 47 } };
+        for (int[] size : sizes) {
+            BufferedImage noise = new BufferedImage(size[0], size[1], BufferedImage.TYPE_BYTE_GRAY);
+            for (int y = 0; y < size[1]; y++) {
+                for (int x = 0; x < size[0]; x++)
+                    noise.getRaster().setSample(x, y, 0, (x / 5 + y / 3) % 2 == 0 ? random.nextInt(96) : 160 + random.nextInt(96));
+            }
+            assertTrue("Size " + size[0] + "x" + size[1], sameBlackMatrix(RasterLuminanceSource.create(noise)));
+            compared++;
+        }
+        QRBillHelper.logMessage("Binarizer: " + compared + " images identical to HybridBinarizer");
+    }
+
+    private static boolean sameBlackMatrix(LuminanceSource source) {
+        BitMatrix expected;
+        try {
+            expected = new HybridBinarizer(source).getBlackMatrix();
+        } catch (NotFoundException e) {
+            expected = null;
+        }
+        BitMatrix actual;
+        try {
+            actual = new BlockBinarizer(source).getBlackMatrix();
+        } catch (NotFoundException e) {
+            actual = null;
+        }
+        return expected == null ? actual == null : expected.equals(actual);
+    }
+
+    @Test
+    public void frameTests() throws Exception {
+        QRBill bill = new SyntheticBills(34, 0).nextBill();
+        BufferedImage scan = ScanDegradation.NONE.apply(bill, new Random(34));
+        int width = 1024;
+        int height = 768;
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        Arrays.fill(nv21, (byte) 0xFF);
+        Arrays.fill(nv21, width * height, nv21.length, (byte) 0x80);
+        for (int y = 0; y < scan.getHeight(); y++) {
+            for (int x = 0; x < scan.getWidth(); x++)
+                nv21[(y + 30) * width + x + 100] = (byte) scan.getRaster().getSample(x, y, 0);
+        }
+
+        // At full load, frames are only skipped while another one is being decoded.
+        FrameDecoder decoder = new FrameDecoder(FrameDecoder.DEFAULT_HISTORY, 1);
+        ScannedQRBill scanned = decoder.decodeFrame(nv21, width, height);
+        assertTrue("Bill in the frame", scanned != null && scanned.getText().equals(bill.getQRCode()));
+        int[] bounds = scanned.getBounds();
+        assertTrue("Reported once", decoder.decodeFrame(nv21, width, height) == null && decoder.getDuplicateCount() == 1);
+
+        // After a reset, the bill is reported again, at the same place in the frame when cropped.
+        decoder.reset();
+        decoder.setCropRegion(60, 10, 900, 740);
+        scanned = decoder.decodeFrame(nv21, width, height);
+        assertTrue("Bill in the crop region", scanned != null && scanned.getText().equals(bill.getQRCode()));
+        for (int i = 0; i < 4; i++)
+            assertTrue("Frame coordinates", Math.abs(scanned.getBounds()[i] - bounds[i]) <= 1);
+        assertTrue("Frames counted", decoder.getFrameCount() == 3 && decoder.getSkippedCount() == 0);
+        QRBillHelper.logMessage("Frames: " + decoder.getFrameCount() + " decoded, " + decoder.getDuplicateCount() + " duplicate");
+    }
+
+    @Test
+    public void deadlineTests() throws Exception {
+        File image = new File(TEST_INVOICE.replace("#", "1"));
+        LongAdderMetrics metrics = new LongAdderMetrics();
+        Metrics.set(metrics);
+        Recording recording = FlightRecorder.isAvailable() ? new Recording() : null;
+        File dump = File.createTempFile("deadline", ".jfr");
+        try {
+            if (recording != null) {
+                recording.enable("com.gfb.qrbill.Stage").withThreshold(Duration.ZERO);
+                recording.start();
+            }
+
+            // An expired deadline gives up before the first tier, and is not a failure.
+            QRDecoder decoder = ZXing.getDecoder();
+            long timeouts = decoder.getTimeoutCount();
+            long failures = decoder.getFailureCount();
+            DecodeResult result = ZXing.readQRImage(image, DecodeDeadline.after(0, TimeUnit.NANOSECONDS));
+            assertTrue("Timed out", result.getStatus() == DecodeResult.Status.TIMED_OUT && result.getText() == null);
+            assertTrue("Not decoded", decoder.getLastTier() == null && decoder.getFailureCount() == failures);
+            assertTrue("Timeout counted", decoder.getTimeoutCount() == timeouts + 1);
+
+            // A cancelled deadline gives up before the first strategy.
+            DecodeDeadline cancelled = DecodeDeadline.cancellable();
+            cancelled.cancel();
+            AdaptiveDecoder adaptive = ZXing.getAdaptiveDecoder();
+            timeouts = adaptive.getTimeoutCount();
+            result = ZXing.readQRImage(image, "deadlineTests", cancelled);
+            assertTrue("Cancelled", result.getStatus() == DecodeResult.Status.CANCELLED);
+            for (AdaptiveDecoder.StrategyStats stats : adaptive.getStatistics("deadlineTests"))
+                assertTrue("No attempt", stats.getAttempts() == 0);
+            assertTrue("Cancellation counted", adaptive.getTimeoutCount() == timeouts + 1);
+
+            OperationStats decode = metrics.getDecode();
+            assertTrue("Decode metrics", decode.getCount() == 2 && decode.getFailures() == 0
+                    && decode.getTimeouts() == 1 && decode.getCancellations() == 1);
+
+            if (recording != null) {
+                recording.stop();
+                recording.dump(dump.toPath());
+                Set<String> outcomes = new TreeSet<>();
+                for (RecordedEvent event : RecordingFile.readAllEvents(dump.toPath())) {
+                    if ("DEADLINE".equals(event.getString("stage")))
+                        outcomes.add(event.getString("outcome"));
+                    else
+                        assertTrue("Expiry outside a deadline event", !event.getString("outcome").equals("timed out")
+                                && !event.getString("outcome").equals("cancelled"));
+                }
+                assertTrue("Expiry events " + outcomes, outcomes.contains("timed out") && outcomes.contains("cancelled"));
+            }
+
+            Map<DecodeHintType, Object> hints = new HashMap<>();
+            hints.put(DecodeHintType.PURE_BARCODE, Boolean.TRUE);
+            try {
+                StagedReader.read(new BinaryBitmap(new BlockBinarizer(ImageLoader.load(image))), hints, null, null);
+                assertTrue("PURE_BARCODE rejected", false);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            QRBillHelper.logMessage("Deadlines: decode " + decode);
+        } finally {
+            Metrics.set(null);
+            if (recording != null)
+                recording.close();
+            dump.delete();
+        }
+    }
+
+    @Test
+    public void qualityTests() throws Exception {
+        for (int i = 1; i < 5; i++) {
+            File invoice = new File(TEST_INVOICE.replace("#", String.valueOf(i)));
+            assertTrue("Invoice " + i + " passes", !ZXing.assessQRImage(invoice).isHopeless());
+            assertTrue("Invoice " + i + " decodes", ZXing.readQRImage(invoice, (DecodeDeadline) null).isDecoded());
+        }
+
+        SyntheticBills bills = new SyntheticBills(36, 0);
+        Random random = new Random(36);
+        ScanDegradation[] usable = { ScanDegradation.NONE, ScanDegradation.NONE.withDpi(200),
+                new ScanDegradation(300, 3, 1, 6, 80), new ScanDegradation(200, -2, 1, 4, 70) };
+        for (ScanDegradation degradation : usable) {
+            BufferedImage scan = degradation.apply(bills.nextBill(), random);
+            assertTrue("Scan passes at " + degradation, !ImageQuality.assess(RasterLuminanceSource.create(scan)).isHopeless());
+        }
+
+        BufferedImage blank = new BufferedImage(600, 600, BufferedImage.TYPE_BYTE_GRAY);
+        assertTrue("Blank image rejected", ImageQuality.assess(RasterLuminanceSource.create(blank)).isHopeless());
+        BufferedImage blurred = ScanDegradation.NONE.withBlur(24).apply(bills.nextBill(), random);
+        assertTrue("Blurred image rejected", ImageQuality.assess(RasterLuminanceSource.create(blurred)).isHopeless());
+
+        // The pre-screen only rejects images when it is enabled.
+        File file = File.createTempFile("blank", ".png");
+        ImageIO.write(blank, "png", file);
+        QRDecoder decoder = ZXing.getDecoder();
+        try {
+            assertTrue("Decoded without pre-screen", ZXing.readQRImage(file, (DecodeDeadline) null).getStatus() == DecodeResult.Status.NOT_FOUND);
+            decoder.setPreScreen(true);
+            DecodeResult result = ZXing.readQRImage(file, (DecodeDeadline) null);
+            assertTrue("Rejected by the pre-screen", result.getStatus() == DecodeResult.Status.REJECTED && result.getQuality().isHopeless());
+        } finally {
+            decoder.setPreScreen(false);
+            file.delete();
+        }
+        QRBillHelper.logMessage("Quality: blurred scan " + ImageQuality.assess(RasterLuminanceSource.create(blurred)));
+    }
+
+    @Test
+    public void adaptiveTests() throws Exception {
+        QRBill bill = new SyntheticBills(37, 0).nextBill();
+        final LuminanceSource scan = RasterLuminanceSource.create(ScanDegradation.NONE.apply(bill, new Random(37)));
+        // The slow strategy cannot decode a dark on light symbol; the fast one can.
+        DecodeStrategy slow = new DecodeStrategy(DecodeStrategy.Binarizer.BLOCK, 1, true, true);
+        DecodeStrategy fast = new DecodeStrategy(DecodeStrategy.Binarizer.BLOCK, 2, false, false);
+
+        // The configured order is kept until the failing strategy has been tried, then the one
+        // that works goes first.
+        AdaptiveDecoder decoder = new AdaptiveDecoder(Arrays.asList(slow, fast), 0);
+        for (int i = 0; i < 5; i++)
+            assertTrue("Decoded " + i, decoder.decode(scan, "scanner", null).isDecoded());
+        List<AdaptiveDecoder.StrategyStats> stats = decoder.getStatistics("scanner");
+        assertTrue("Learnt order", stats.get(0).getStrategy() == fast && stats.get(0).getSuccesses() == 5);
+        assertTrue("Failing strategy tried once", stats.get(1).getAttempts() == 1 && stats.get(1).getSuccesses() == 0);
+        assertTrue("Other sources unaffected", decoder.getStatistics("camera").get(0).getStrategy() == slow);
+
+        // With every call exploring, the other strategy is always tried first.
+        decoder = new AdaptiveDecoder(Arrays.asList(fast, slow), 1);
+        for (int i = 0; i < 3; i++)
+            assertTrue("Decoded while exploring " + i, decoder.decode(scan, null, null).isDecoded());
+        for (AdaptiveDecoder.StrategyStats s : decoder.getStatistics(null))
+            assertTrue("Explored " + s, s.getAttempts() == 3 && s.getSuccesses() == (s.getStrategy() == fast ? 3 : 0));
+
+        // An attempt that the deadline cuts short is not held against the strategy.
+        final DecodeDeadline deadline = DecodeDeadline.cancellable();
+        LuminanceSource cancelling = new LuminanceSource(scan.getWidth(), scan.getHeight()) {
+            @Override
+            public byte[] getRow(int y, byte[] row) {
+                deadline.cancel();
+                return scan.getRow(y, row);
+            }
+
+            @Override
+            public byte[] getMatrix() {
+                deadline.cancel();
+                return scan.getMatrix();
+            }
+        };
+        decoder = new AdaptiveDecoder(Arrays.asList(fast, slow), 0);
+        assertTrue("Cancelled while binarizing", decoder.decode(cancelling, null, deadline).getStatus() == DecodeResult.Status.CANCELLED);
+        for (AdaptiveDecoder.StrategyStats s : decoder.getStatistics(null))
+            assertTrue("Not recorded " + s, s.getAttempts() == 0);
+        assertTrue("Cancellation counted", decoder.getTimeoutCount() == 1);
+        QRBillHelper.logMessage("Adaptive: " + stats);
+    }
+
+    @Test
+    public void verifyTests() throws Exception {
+        SyntheticBills bills = new SyntheticBills(38, 0);
+        for (int i = 0; i < 20; i++) {
+            QRBill bill = bills.nextBill();
+            assertTrue("Bill " + i + " verifies", ZXing.verifyQRBill(bill) && ZXing.verifyQRCode(bill.getQRCode()));
+        }
+
+        String text = bills.nextBill().getQRCode();
+        BitMatrix modules = ZXing.encodeQRCode(text);
+        assertTrue("Other text", !ZXing.verifyQRCode(modules, bills.nextBill().getQRCode()));
+
+        // Flip the data modules of the lower half, clear of the finder patterns and format information.
+        int n = modules.getWidth();
+        for (int y = n / 2; y < n; y++) {
+            for (int x = 9; x < n; x++)
+                modules.flip(x, y);
+        }
+        assertTrue("Corrupted matrix", !ZXing.verifyQRCode(modules, text));
+        QRBillHelper.logMessage("Verify: fresh bills verify, corrupted matrix does not");
+    }
+
+    @Test
+    public void payloadTests() throws Exception {
+        // The legacy image size fits the bill's bytes exactly like QRCodeWriter fits its text.
+        Map<EncodeHintType, Object> hints = new HashMap<>();
+        hints.put(EncodeHintType.CHARACTER_SET, "UTF-8");
+        hints.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.M);
+        SyntheticBills bills = new SyntheticBills(40, 0);
+        for (int i = 0; i < 5; i++) {
+            QRBill bill = bills.nextBill();
+            BitMatrix expected = new QRCodeWriter().encode(bill.getQRCode(), BarcodeFormat.QR_CODE, QR_LENGTH, QR_LENGTH, hints);
+            assertTrue("Fitted bill " + i, expected.equals(ZXing.fit(ZXing.encodeQRBill(bill), QR_LENGTH, QR_LENGTH)));
+        }
+
+        // The 997 byte limit counts UTF-8 bytes, not characters.
+        LongAdderMetrics metrics = new LongAdderMetrics();
+        Metrics.set(metrics);
+        try {
+            String payload = bills.next().getPayload();
+            StringBuilder wide = new StringBuilder(payload).append('\n');
+            while (wide.toString().getBytes("UTF-8").length <= 997)
+                wide.append('\u20AC');
+            assertTrue("Under 997 characters", wide.length() <= 997);
+            new QRBill(wide.toString());
+            assertTrue("Too many bytes", metrics.getErrorCounts().containsKey(2));
+        } finally {
+            Metrics.set(null);
+        }
+        QRBillHelper.logMessage("Payload: images fitted from bytes, limit counted in bytes");
+    }
+
+    @Test
+    public void estimateTests() throws Exception {
+        SyntheticBills bills = new SyntheticBills(41, 0);
+        for (int i = 0; i < 200; i++) {
+            QRBill bill = bills.nextBill();
+            int length = bill.getQRCodeBytes().length;
+            assertTrue("Estimate of bill " + i, bill.estimateSymbol().getLength() == length);
+        }
+        QRBill empty = new QRBill();
+        assertTrue("Estimate of a new bill", empty.estimateSymbol().getLength() == empty.toString().getBytes("UTF-8").length);
+        QRBillHelper.logMessage("Estimate: 200 bills counted field by field");
+    }
+
+    @Test
+    public void truncatedTests() throws Exception {
+        LongAdderMetrics metrics = new LongAdderMetrics();
+        Metrics.set(metrics);
+        try {
+            String[] payloads = { "SPC", "SPC\n", " SPC \n\n", "X" };
+            for (String payload : payloads)
+                new QRBill(payload);
+            OperationStats parse = metrics.getParse();
+            assertTrue("Truncated payloads invalid", parse.getCount() == payloads.length && parse.getFailures() == payloads.length);
+            assertTrue("Version error", metrics.getErrorCounts().get(4) == payloads.length);
+        } finally {
+            Metrics.set(null);
+        }
+        QRBillHelper.logMessage("Truncated: one-line payloads reported as invalid");
+    }
+}